@@ -22,6 +22,7 @@ plugins {
     id("dev.architectury.loom") version "1.2.+" // TODO: update to 1.3.+ when JiJ fix is forward ported
     id("io.github.juuxel.loom-vineflower") version "1.11.0"
     id("com.github.gmazzo.buildconfig") version "4.0.4"
+    id("me.champeau.jmh") version "0.7.2"
     java
     `maven-publish`
 }
@@ -80,6 +81,10 @@ dependencies {
 
     // JEI
     modLocalRuntime("mezz.jei:jei-$minecraftVersion-forge:$jeiVersion") { isTransitive = false }
+
+    // Tests
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.0")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher:1.10.0")
 }
 
 tasks {
@@ -121,6 +126,10 @@ tasks {
     withType<GenerateModuleMetadata> {
         enabled = false
     }
+
+    test {
+        useJUnitPlatform()
+    }
 }
 
 extensions.configure<JavaPluginExtension> {
@@ -139,6 +148,21 @@ extensions.configure<LoomGradleExtensionAPI> {
     }
 }
 
+jmh {
+    // benchmarks only touch plain Java classes, so they run without a game instance
+    jmhVersion.set("1.37")
+    // the benchmarks share the fake networks of the tests
+    includeTests.set(true)
+    fork.set(1)
+    warmupIterations.set(5)
+    iterations.set(5)
+    benchmarkMode.set(listOf("avgt"))
+    timeUnit.set("ns")
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    jvmArgs.addAll("-Xms2G", "-Xmx2G")
+}
+
 buildConfig {
     buildConfigField("String", "MOD_ID", "\"$modId\"")
     buildConfigField("String", "MOD_NAME", "\"$modName\"")
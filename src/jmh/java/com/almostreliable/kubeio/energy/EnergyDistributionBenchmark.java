@@ -0,0 +1,79 @@
+package com.almostreliable.kubeio.energy;
+
+import com.almostreliable.kubeio.energy.EnergyNetworkFixture.Block;
+import com.almostreliable.kubeio.energy.EnergyNetworkFixture.Scenario;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures a single distribution tick of a network with the fake blocks of {@link EnergyNetworkFixture}.
+ * <p>
+ * Run with {@code ./gradlew jmh}, the results are written to {@code build/results/jmh}.
+ */
+@State(Scope.Thread)
+public class EnergyDistributionBenchmark {
+
+    private static final long SEED = 42;
+
+    @Param({"10", "1000", "100000"})
+    private int endpoints;
+
+    @Param({"EXCESS_POWER", "POWER_DEFICIT", "BALANCED", "MIXED"})
+    private Scenario scenario;
+
+    @Param({"FAIR", "ROUND_ROBIN", "NEAREST_FIRST"})
+    private EnergyDistributionStrategy strategy;
+
+    private EnergyDistributor distributor;
+    private EnergyDistributor stableDistributor;
+    private Block[] blocks;
+
+    @Setup
+    public void setup() {
+        distributor = new EnergyDistributor(EnergyNetworkFixture.TRANSFER_RATE, strategy);
+        stableDistributor = new EnergyDistributor(EnergyNetworkFixture.TRANSFER_RATE, strategy);
+        blocks = EnergyNetworkFixture.createBlocks(scenario, endpoints, SEED);
+        EnergyNetworkFixture.addBlocks(stableDistributor, blocks);
+    }
+
+    /**
+     * A tick of a network whose layout changed, the blocks are added again.
+     */
+    @Benchmark
+    public void tick(Blackhole blackhole) {
+        EnergyNetworkFixture.addBlocks(distributor, blocks);
+        long transferred = distributor.distribute();
+        blackhole.consume(distributor.commit());
+        blackhole.consume(transferred);
+        distributor.clear();
+    }
+
+    /**
+     * A tick of a network with a stable layout, the blocks are kept from the last tick.
+     */
+    @Benchmark
+    public void tickStable(Blackhole blackhole) {
+        long transferred = stableDistributor.distribute();
+        blackhole.consume(stableDistributor.commit());
+        blackhole.consume(transferred);
+    }
+
+    /**
+     * A tick of a network with a stable layout that is planned before the commit, on the common fork-join pool if
+     * requested. Compared to {@link #tickStable}, this shows from which size the handoff pays off.
+     */
+    @Benchmark
+    public void tickStablePlanned(Planning planning, Blackhole blackhole) {
+        long transferred = stableDistributor.distribute();
+        stableDistributor.plan(planning.parallel);
+        blackhole.consume(stableDistributor.commit());
+        blackhole.consume(transferred);
+    }
+
+    @State(Scope.Thread)
+    public static class Planning {
+
+        @Param({"false", "true"})
+        private boolean parallel;
+    }
+}
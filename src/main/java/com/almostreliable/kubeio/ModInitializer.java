@@ -1,12 +1,20 @@
 package com.almostreliable.kubeio;
 
+import com.almostreliable.kubeio.enderio.BlockUpdateTracker;
 import com.almostreliable.kubeio.enderio.CustomConduitEntry;
+import com.almostreliable.kubeio.enderio.EnergyNetworkCommand;
+import com.almostreliable.kubeio.enderio.EnergyTickBudget;
 import com.almostreliable.kubeio.kube.KubePlugin;
 import com.almostreliable.kubeio.kube.event.ConduitRegistryEvent;
 import com.enderio.base.common.init.EIOCreativeTabs;
 import com.mojang.logging.LogUtils;
 import net.minecraft.core.registries.Registries;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.BuildCreativeModeTabContentsEvent;
+import net.minecraftforge.event.RegisterCommandsEvent;
+import net.minecraftforge.event.level.BlockEvent;
+import net.minecraftforge.event.level.LevelEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import net.minecraftforge.registries.RegisterEvent;
@@ -22,6 +30,9 @@ public final class ModInitializer {
         var modEventBus = FMLJavaModLoadingContext.get().getModEventBus();
         modEventBus.addListener(ModInitializer::onRegistration);
         modEventBus.addListener(ModInitializer::onTabContents);
+        MinecraftForge.EVENT_BUS.addListener(ModInitializer::onNeighborNotify);
+        MinecraftForge.EVENT_BUS.addListener(ModInitializer::onLevelUnload);
+        MinecraftForge.EVENT_BUS.addListener(ModInitializer::onRegisterCommands);
     }
 
     private static void onRegistration(RegisterEvent event) {
@@ -33,8 +44,25 @@ public final class ModInitializer {
     private static void onTabContents(BuildCreativeModeTabContentsEvent event) {
         if (event.getTabKey() != EIOCreativeTabs.CONDUITS) return;
 
-        for (CustomConduitEntry conduit : ConduitRegistryEvent.CONDUITS) {
+        for (CustomConduitEntry conduit : ConduitRegistryEvent.CONDUITS.values()) {
             event.accept(conduit.item());
         }
     }
+
+    private static void onNeighborNotify(BlockEvent.NeighborNotifyEvent event) {
+        if (event.getLevel() instanceof ServerLevel level) {
+            BlockUpdateTracker.onBlockUpdate(level, event.getPos());
+        }
+    }
+
+    private static void onLevelUnload(LevelEvent.Unload event) {
+        if (event.getLevel() instanceof ServerLevel level) {
+            BlockUpdateTracker.onLevelUnload(level);
+            EnergyTickBudget.onLevelUnload(level);
+        }
+    }
+
+    private static void onRegisterCommands(RegisterCommandsEvent event) {
+        EnergyNetworkCommand.register(event.getDispatcher());
+    }
 }
@@ -0,0 +1,292 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.enderio.api.conduit.ColoredRedstoneProvider;
+import com.enderio.api.conduit.ConduitData;
+import com.enderio.api.conduit.ConduitGraph;
+import com.enderio.api.conduit.ConduitNode;
+import com.enderio.api.conduit.ConduitType;
+import com.enderio.api.conduit.ticker.IOAwareConduitTicker;
+import com.enderio.api.misc.ColorControl;
+import com.enderio.api.misc.RedstoneControl;
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraftforge.common.capabilities.Capability;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Ticks conduit graphs that move resources between capabilities in bulk, only once every few ticks.
+ * <p>
+ * Each extracting connection moves up to a budget per operation, moving a lot rarely is cheaper than moving a little
+ * every tick. The graphs are spread over the ticks of the interval by the position of their lowest node, so they don't
+ * all transfer in the same tick and keep their tick when the world is loaded again. The inserting connections are
+ * served in turns, starting with the next one after each operation. Extracting connections only move resources while
+ * their redstone control lets them.
+ *
+ * @param <C> the capability the resources are moved between
+ */
+abstract class BatchedConduitTicker<T extends ConduitData<T>, C> implements IOAwareConduitTicker<T> {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final ColorControl[] COLORS = ColorControl.values();
+
+    private final Capability<C> capability;
+    private final int tickInterval;
+    // the tick within the interval each graph transfers in, dropped with the graph, e.g. when it is merged or split
+    private final Map<ConduitGraph<?>, Integer> phases = new WeakHashMap<>();
+
+    // the connections of the graph being ticked, reused between ticks
+    private final Connections inserts = new Connections();
+    private final Connections extracts = new Connections();
+    // the inserting connections of the color being ticked, reused between ticks
+    private final List<C> targets = new ArrayList<>();
+    private long[] targetPositions = new long[8];
+    private int cursor;
+
+    /**
+     * @param tickInterval the amount of ticks between two operations of a graph
+     */
+    BatchedConduitTicker(Capability<C> capability, int tickInterval) {
+        this.capability = capability;
+        this.tickInterval = tickInterval;
+    }
+
+    /**
+     * Moves resources from the source to the target.
+     *
+     * @param sourcePos the position of the source block
+     * @param budget    the maximum amount to move
+     * @return the amount moved
+     */
+    abstract int move(ServerLevel level, BlockPos sourcePos, C source, C target, int budget);
+
+    /**
+     * @return the amount an extracting connection may move per operation
+     */
+    abstract int getBudget();
+
+    /**
+     * Collects the connections of the graph itself instead of going through {@link #tickColoredGraph}, so extracting
+     * connections whose redstone control is off are left out.
+     */
+    @Override
+    public void tickGraph(
+        ConduitType<T> type, ConduitGraph<T> graph, ServerLevel level, ColoredRedstoneProvider coloredRedstoneProvider
+    ) {
+        int phase = phases.computeIfAbsent(graph, this::getPhase);
+        if ((level.getGameTime() + phase) % tickInterval != 0) return;
+
+        try {
+            boolean hasRedstoneControl = type.getMenuData().showRedstoneExtract();
+            for (ConduitNode<T> node : graph.getNodes()) {
+                collectConnections(level, node, hasRedstoneControl, coloredRedstoneProvider);
+            }
+
+            int colors = inserts.colorMask & extracts.colorMask;
+            for (int color = 0; color < COLORS.length; color++) {
+                if ((colors & 1 << color) == 0) continue;
+                for (int i = 0; i < inserts.size; i++) {
+                    if (inserts.colors[i] == color) addTarget(level, inserts.getTargetPos(i), inserts.getSide(i));
+                }
+                tickTargets(level, color);
+            }
+        } finally {
+            inserts.clear();
+            extracts.clear();
+            targets.clear();
+        }
+    }
+
+    /**
+     * Moves resources between the given connections of a color. Not used by {@link #tickGraph}, the extracting
+     * connections have to be filtered by their redstone control already.
+     */
+    @Override
+    public void tickColoredGraph(
+        ServerLevel level,
+        ConduitType<T> type,
+        List<Connection<T>> inserts,
+        List<Connection<T>> extracts,
+        ColorControl color,
+        ConduitGraph<T> graph,
+        ColoredRedstoneProvider coloredRedstoneProvider
+    ) {
+        if (inserts.isEmpty() || extracts.isEmpty()) return;
+
+        try {
+            for (Connection<T> insert : inserts) {
+                addTarget(level, insert.move(), insert.dir().getOpposite());
+            }
+            if (targets.isEmpty()) return;
+
+            int budget = getBudget();
+            for (Connection<T> extract : extracts) {
+                transfer(level, extract.move(), extract.dir().getOpposite(), budget);
+            }
+            cursor++;
+        } finally {
+            targets.clear();
+        }
+    }
+
+    /**
+     * Derives the phase of a graph from the position of its lowest node, which doesn't depend on the order the nodes
+     * were loaded in.
+     */
+    private int getPhase(ConduitGraph<?> graph) {
+        long lowest = Long.MAX_VALUE;
+        for (ConduitNode<?> node : graph.getNodes()) {
+            lowest = Math.min(lowest, node.getPos().asLong());
+        }
+        return (int) Math.floorMod(HashCommon.mix(lowest), (long) tickInterval);
+    }
+
+    @Override
+    public int getTickRate() {
+        // the interval is handled per graph, so the graphs can be spread over its ticks
+        return 1;
+    }
+
+    private void collectConnections(
+        ServerLevel level, ConduitNode<T> node, boolean hasRedstoneControl, ColoredRedstoneProvider redstoneProvider
+    ) {
+        BlockPos pos = node.getPos();
+        for (Direction direction : DIRECTIONS) {
+            var ioState = node.getIOState(direction).orElse(null);
+            if (ioState == null) continue;
+            if (ioState.insert().isPresent()) inserts.add(pos, direction, ioState.insert().get());
+            if (ioState.extract().isEmpty()) continue;
+            if (hasRedstoneControl && !isRedstoneActive(level, pos, ioState, redstoneProvider)) continue;
+            extracts.add(pos, direction, ioState.extract().get());
+        }
+    }
+
+    /**
+     * Checks the redstone control of an extracting connection. Takes the colored redstone of the graph and the
+     * signal of all neighbors into account.
+     */
+    private static boolean isRedstoneActive(
+        ServerLevel level, BlockPos pos, ConduitNode.IOState ioState, ColoredRedstoneProvider redstoneProvider
+    ) {
+        RedstoneControl control = ioState.control();
+        if (control == RedstoneControl.ALWAYS_ACTIVE) return true;
+        if (control == RedstoneControl.NEVER_ACTIVE || !isTicking(level, pos)) return false;
+        boolean hasSignal = level.hasNeighborSignal(pos) ||
+                            redstoneProvider.isRedstoneActive(level, pos, ioState.redstoneChannel());
+        return control.isActive(hasSignal);
+    }
+
+    /**
+     * Moves resources from the extracting connections of the given color into the collected targets.
+     */
+    private void tickTargets(ServerLevel level, int color) {
+        try {
+            if (targets.isEmpty()) return;
+
+            int budget = getBudget();
+            for (int i = 0; i < extracts.size; i++) {
+                if (extracts.colors[i] != color) continue;
+                transfer(level, extracts.getTargetPos(i), extracts.getSide(i), budget);
+            }
+            cursor++;
+        } finally {
+            targets.clear();
+        }
+    }
+
+    private void addTarget(ServerLevel level, BlockPos pos, Direction side) {
+        C target = getCapability(level, pos, side);
+        if (target == null) return;
+        if (targets.size() == targetPositions.length) {
+            targetPositions = Arrays.copyOf(targetPositions, targets.size() * 2);
+        }
+        targetPositions[targets.size()] = pos.asLong();
+        targets.add(target);
+    }
+
+    private void transfer(ServerLevel level, BlockPos sourcePos, Direction side, int budget) {
+        C source = getCapability(level, sourcePos, side);
+        if (source == null) return;
+
+        long packedPos = sourcePos.asLong();
+        int targetCount = targets.size();
+        int left = budget;
+        for (int i = 0; i < targetCount && left > 0; i++) {
+            int target = Math.floorMod(cursor + i, targetCount);
+            // blocks don't feed themselves
+            if (targetPositions[target] == packedPos) continue;
+            left -= move(level, sourcePos, source, targets.get(target), left);
+        }
+    }
+
+    /**
+     * Returns the capability of the block at the given position. Blocks in chunks that don't tick are skipped, as
+     * looking them up would load the chunk.
+     */
+    @Nullable
+    private C getCapability(ServerLevel level, BlockPos pos, Direction side) {
+        if (!isTicking(level, pos)) return null;
+        BlockEntity blockEntity = level.getBlockEntity(pos);
+        if (blockEntity == null) return null;
+        return blockEntity.getCapability(capability, side).resolve().orElse(null);
+    }
+
+    private static boolean isTicking(ServerLevel level, BlockPos pos) {
+        return level.shouldTickBlocksAt(ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4));
+    }
+
+    /**
+     * The connections of one side of a graph, packed as the position of the conduit, the direction of the connection
+     * and its color.
+     */
+    private static final class Connections {
+
+        private long[] positions = new long[8];
+        private byte[] directions = new byte[8];
+        private byte[] colors = new byte[8];
+        private int size;
+        // a bit for each color that has connections
+        private int colorMask;
+
+        private void add(BlockPos pos, Direction direction, ColorControl color) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                directions = Arrays.copyOf(directions, size * 2);
+                colors = Arrays.copyOf(colors, size * 2);
+            }
+            positions[size] = pos.asLong();
+            directions[size] = (byte) direction.ordinal();
+            colors[size] = (byte) color.ordinal();
+            colorMask |= 1 << color.ordinal();
+            size++;
+        }
+
+        /**
+         * @return the position of the block the connection points to
+         */
+        private BlockPos getTargetPos(int index) {
+            return BlockPos.of(BlockPos.offset(positions[index], DIRECTIONS[directions[index]]));
+        }
+
+        /**
+         * @return the side of the block the connection points to
+         */
+        private Direction getSide(int index) {
+            return DIRECTIONS[directions[index]].getOpposite();
+        }
+
+        private void clear() {
+            size = 0;
+            colorMask = 0;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.almostreliable.kubeio.enderio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.level.Level;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatches block updates to listeners watching specific positions.
+ * <p>
+ * Only accessed from the server thread.
+ */
+public final class BlockUpdateTracker {
+
+    private static final Map<ResourceKey<Level>, Long2ObjectOpenHashMap<List<Listener>>> LISTENERS = new HashMap<>();
+
+    private BlockUpdateTracker() {}
+
+    static void listen(Level level, long pos, Listener listener) {
+        LISTENERS.computeIfAbsent(level.dimension(), k -> new Long2ObjectOpenHashMap<>())
+            .computeIfAbsent(pos, k -> new ArrayList<>(1))
+            .add(listener);
+    }
+
+    static void forget(Level level, long pos, Listener listener) {
+        var listenersByPos = LISTENERS.get(level.dimension());
+        if (listenersByPos == null) return;
+        List<Listener> listeners = listenersByPos.get(pos);
+        if (listeners == null) return;
+        listeners.remove(listener);
+        if (listeners.isEmpty()) listenersByPos.remove(pos);
+    }
+
+    public static void onBlockUpdate(Level level, BlockPos pos) {
+        var listenersByPos = LISTENERS.get(level.dimension());
+        if (listenersByPos == null || listenersByPos.isEmpty()) return;
+        long key = pos.asLong();
+        List<Listener> listeners = listenersByPos.get(key);
+        if (listeners == null) return;
+        // listeners may unregister themselves while being notified
+        for (Listener listener : listeners.toArray(Listener[]::new)) {
+            listener.onBlockUpdate(key);
+        }
+    }
+
+    public static void onLevelUnload(Level level) {
+        LISTENERS.remove(level.dimension());
+    }
+
+    interface Listener {
+
+        void onBlockUpdate(long pos);
+    }
+}
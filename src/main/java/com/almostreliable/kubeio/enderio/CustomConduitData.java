@@ -0,0 +1,14 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.enderio.api.conduit.ConduitData;
+
+/**
+ * Conduit data of custom conduits that don't store anything in their nodes.
+ */
+public class CustomConduitData implements ConduitData<CustomConduitData> {
+
+    @Override
+    public CustomConduitData deepCopy() {
+        return new CustomConduitData();
+    }
+}
@@ -0,0 +1,94 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.enderio.api.misc.ColorControl;
+import com.enderio.conduits.common.conduit.type.energy.EnergyConduitData;
+import net.minecraft.nbt.CompoundTag;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Conduit data of buffered custom energy conduits, holds the energy buffered by the graph for each color.
+ * <p>
+ * The buffer of a graph is collected in the data of a single node, so a transfer only updates one node. Nodes that
+ * come with energy of another graph, e.g. after a merge, hand it over when the nodes of the graph change. When a graph
+ * is split, the nodes leaving it take their share of the buffer with them.
+ */
+public class CustomEnergyConduitData extends EnergyConduitData {
+
+    private static final String BUFFERS_KEY = "Buffers";
+
+    @Nullable private long[] buffers;
+
+    long getBuffer(int color) {
+        return buffers == null ? 0 : buffers[color];
+    }
+
+    void setBuffer(int color, long energy) {
+        if (buffers == null) {
+            if (energy == 0) return;
+            buffers = new long[ColorControl.values().length];
+        }
+        buffers[color] = energy;
+    }
+
+    boolean isEmpty() {
+        if (buffers == null) return true;
+        for (long buffer : buffers) {
+            if (buffer != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the energy of the given data into this one.
+     */
+    void takeBuffers(CustomEnergyConduitData other) {
+        if (other.buffers == null) return;
+        for (int color = 0; color < other.buffers.length; color++) {
+            setBuffer(color, getBuffer(color) + other.buffers[color]);
+        }
+        other.buffers = null;
+    }
+
+    /**
+     * Moves {@code count / total} of the energy of each color of the given data into this one.
+     */
+    void takeShare(CustomEnergyConduitData other, int count, int total) {
+        if (other.buffers == null) return;
+        for (int color = 0; color < other.buffers.length; color++) {
+            long energy = other.buffers[color];
+            // split up so large buffers don't overflow
+            long share = energy / total * count + energy % total * count / total;
+            if (share == 0) continue;
+            other.buffers[color] -= share;
+            setBuffer(color, getBuffer(color) + share);
+        }
+    }
+
+    @Override
+    public CustomEnergyConduitData deepCopy() {
+        var copy = new CustomEnergyConduitData();
+        if (buffers != null) copy.buffers = Arrays.copyOf(buffers, buffers.length);
+        return copy;
+    }
+
+    @Override
+    public CompoundTag serializeNBT() {
+        CompoundTag tag = super.serializeNBT();
+        if (!isEmpty()) tag.putLongArray(BUFFERS_KEY, buffers);
+        return tag;
+    }
+
+    @Override
+    public void deserializeNBT(CompoundTag tag) {
+        super.deserializeNBT(tag);
+        buffers = null;
+        if (!tag.contains(BUFFERS_KEY)) return;
+
+        long[] loaded = tag.getLongArray(BUFFERS_KEY);
+        for (int color = 0; color < Math.min(loaded.length, ColorControl.values().length); color++) {
+            setBuffer(color, loaded[color]);
+        }
+    }
+}
@@ -1,272 +1,529 @@
 package com.almostreliable.kubeio.enderio;
 
-import com.enderio.api.conduit.ConduitData;
-import com.enderio.api.conduit.ticker.IOAwareConduitTicker;
+import com.almostreliable.kubeio.energy.EnergyDistributionStrategy;
+import com.almostreliable.kubeio.energy.EnergyDistributor;
+import com.enderio.api.conduit.ColoredRedstoneProvider;
+import com.enderio.api.conduit.ConduitGraph;
+import com.enderio.api.conduit.ConduitNode;
+import com.enderio.api.conduit.ConduitType;
+import com.enderio.api.misc.RedstoneControl;
+import com.enderio.conduits.common.conduit.type.energy.EnergyConduitData;
 import com.enderio.conduits.common.conduit.type.energy.EnergyConduitTicker;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerLevel;
-import net.minecraft.util.Tuple;
-import net.minecraft.world.level.block.entity.BlockEntity;
-import net.minecraftforge.common.capabilities.ForgeCapabilities;
-import net.minecraftforge.energy.IEnergyStorage;
+import net.minecraft.world.level.Level;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.*;
-import java.util.function.BiFunction;
-
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Ticks custom energy conduit graphs through their own path instead of the capability lookup of the base ticker.
+ * <p>
+ * The blocks are simulated and the energy is committed on the server thread, in the tick of the graph. Only splitting
+ * the energy between the blocks of large graphs is handed to the common fork-join pool and joined before the commit.
+ */
 public class CustomEnergyConduitTicker extends EnergyConduitTicker {
 
-    private final int transferRate;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final int CONTEXT_SWEEP_INTERVAL = 1200;
+    private static final int CONTEXT_TIMEOUT = 200;
+    private static final int MAX_MISSED_TRANSFERS = 4;
+    // below this amount of endpoints, handing the planning to another thread costs more than it saves
+    private static final int PARALLEL_PLANNING_THRESHOLD = 4096;
+    private static final boolean PARALLEL_PLANNING = ForkJoinPool.getCommonPoolParallelism() > 1;
+
+    private final Map<ConduitGraph<?>, EnergyGraphContext> graphContexts = new IdentityHashMap<>();
+    private final ResourceLocation conduit;
+    private final long transferRate;
+    private final int tickInterval;
+    private final boolean unbounded;
+    private final boolean buffered;
+    private final EnergyDistributionStrategy strategy;
+    // reused by the distance walks of the nearest first strategy
+    private final Long2IntOpenHashMap distances = new Long2IntOpenHashMap();
+    private long[] distanceQueue = new long[0];
+    // the simulations of the last transfer run, only read for the metrics
+    private int simulations;
+    private long lastContextSweep;
+    private int nextPhase;
+
+    /**
+     * @param tickInterval the amount of ticker runs a graph skips between transfers, the transfer rate of a run is
+     *                     multiplied by it to keep the throughput
+     * @param unbounded    whether the transfer rate is ignored, the blocks then only limit themselves
+     * @param buffered     whether the graphs buffer energy in the data of their conduits, only for bounded conduits
+     */
+    CustomEnergyConduitTicker(
+        ResourceLocation conduit,
+        int transferRate,
+        int tickInterval,
+        boolean unbounded,
+        boolean buffered,
+        EnergyDistributionStrategy strategy
+    ) {
+        this.conduit = conduit;
+        this.transferRate = (long) transferRate * tickInterval;
+        this.tickInterval = tickInterval;
+        this.unbounded = unbounded;
+        this.buffered = buffered && !unbounded;
+        this.strategy = strategy;
+        distances.defaultReturnValue(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Marks the connections of the conduit at the given position as outdated in the graph it belongs to.
+     */
+    void onConnectionsChanged(Level level, BlockPos pos) {
+        long packedPos = pos.asLong();
+        // contexts of merged graphs may still know the position until they are swept
+        for (EnergyGraphContext context : graphContexts.values()) {
+            if (context.level == level) context.onNodeChanged(packedPos);
+        }
+    }
 
-    CustomEnergyConduitTicker(int transferRate) {
-        this.transferRate = transferRate;
+    /**
+     * Drops the connections of the removed conduit at the given position from the graph it belonged to.
+     */
+    void onNodeRemoved(Level level, BlockPos pos) {
+        long packedPos = pos.asLong();
+        for (EnergyGraphContext context : graphContexts.values()) {
+            if (context.level == level) context.onNodeRemoved(packedPos);
+        }
     }
 
-    public <TData extends ConduitData<TData>> void customTickEnergyGraph(
+    @Override
+    public void tickGraph(
+        ConduitType<EnergyConduitData> type,
+        ConduitGraph<EnergyConduitData> graph,
         ServerLevel level,
-        List<Connection<TData>> inserts,
-        List<IOAwareConduitTicker.Connection<TData>> extracts
+        ColoredRedstoneProvider coloredRedstoneProvider
     ) {
-        Map<BlockEntity, BlockCapabilityConnections> capabilitiesByBlocks = getCapabilitiesByBlocks(
-            level,
-            inserts,
-            extracts
-        );
-        ExtractInsertData extractInsertData = transformCapabilitiesByBlocks(capabilitiesByBlocks);
-
-        // If this is true, no energy transfer is necessary
-        if ((extractInsertData.inserts.isEmpty() && extractInsertData.extracts.isEmpty()) ||
-            (extractInsertData.inserts.isEmpty() && extractInsertData.insertAndExtracts.isEmpty()) ||
-            (extractInsertData.extracts.isEmpty() && extractInsertData.insertAndExtracts.isEmpty())) {
+        long gameTime = level.getGameTime();
+        sweepContexts(gameTime);
+        EnergyGraphContext context = graphContexts.get(graph);
+        if (context == null) {
+            // spread the graphs over all phases, so they don't all transfer in the same tick
+            context = new EnergyGraphContext(level, this::createDistributor, nextPhase);
+            nextPhase = (nextPhase + 1) % tickInterval;
+            graphContexts.put(graph, context);
+        }
+        context.lastTick = gameTime;
+        boolean due = (gameTime / getTickRate() + context.phase) % tickInterval == 0;
+        if (!due && !context.deferred) return;
+
+        // a graph that waited too often goes ahead, so graphs ticked late don't starve
+        if (!EnergyTickBudget.tryStart(level, context.missedTransfers >= MAX_MISSED_TRANSFERS)) {
+            if (due) context.missedTransfers = Math.min(context.missedTransfers + 1, MAX_MISSED_TRANSFERS);
+            context.deferred = true;
             return;
         }
 
-        OrderedCapabilitiesWithMaxTransfer sortedInserts = sortTransfers(
-            extractInsertData.inserts,
-            (energyStorage, amount) -> energyStorage.receiveEnergy(amount, true)
-        );
-        OrderedCapabilitiesWithMaxTransfer sortedExtracts = sortTransfers(
-            extractInsertData.extracts,
-            (energyStorage, amount) -> energyStorage.extractEnergy(amount, true)
-        );
-
-        if (sortedInserts.maxTransferAmount < sortedExtracts.maxTransferAmount) {
-            handleExcessPower(sortedInserts, sortedExtracts, extractInsertData);
-        } else if (sortedInserts.maxTransferAmount > sortedExtracts.maxTransferAmount) {
-            handlePowerDeficit(sortedInserts, sortedExtracts, extractInsertData);
-        } else {
-            for(var insert : sortedInserts.caps) insert.receiveEnergy(transferRate, false);
-            for(var extract : sortedExtracts.caps) extract.extractEnergy(transferRate, false);
+        try {
+            int transfers = context.missedTransfers + (due ? 1 : 0);
+            context.deferred = false;
+            context.missedTransfers = 0;
+
+            // only measured while requested, so the clock isn't read on every tick
+            boolean collectMetrics = EnergyGraphMetrics.isCollecting(gameTime);
+            long start = collectMetrics ? System.nanoTime() : 0;
+
+            boolean retryUnloaded = context.retryUnloaded(gameTime);
+            updateLayout(type, level, graph.getNodes(), context, gameTime);
+            updateChannels(level, context, coloredRedstoneProvider, gameTime, retryUnloaded);
+            long inserted = tickChannels(context, gameTime, transfers);
+            if (collectMetrics) recordMetrics(context, gameTime, transfers, System.nanoTime() - start, inserted);
+        } finally {
+            EnergyTickBudget.finish(level);
         }
     }
 
-    private void handleExcessPower(
-        OrderedCapabilitiesWithMaxTransfer sortedInserts,
-        OrderedCapabilitiesWithMaxTransfer sortedExtracts,
-        ExtractInsertData extractInsertData
-    ) {
-        int excessPower = sortedExtracts.maxTransferAmount - sortedInserts.maxTransferAmount;
-        OrderedCapabilitiesWithMaxTransfer sortedExtraInserts = sortTransfers(
-            extractInsertData.insertAndExtracts.stream().map(Tuple::getA).toList(),
-            (energyStorage, amount) -> energyStorage.receiveEnergy(amount, true)
-        );
-        for(var insert : sortedInserts.caps) insert.receiveEnergy(transferRate, false);
-        if (excessPower > sortedExtraInserts.maxTransferAmount) {
-            for(var insert : sortedExtraInserts.caps) insert.receiveEnergy(transferRate, false);
+    private EnergyDistributor createDistributor() {
+        return unbounded ? EnergyDistributor.unbounded(strategy) : new EnergyDistributor(transferRate, strategy);
+    }
 
-            int leftToExtract = sortedInserts.maxTransferAmount + sortedExtraInserts.maxTransferAmount;
-            extractBalanced(sortedExtracts, leftToExtract);
-        } else {
-            for(var extract : sortedExtracts.caps) extract.extractEnergy(transferRate, false);
+    /**
+     * Collects the connections of the nodes that changed since the last tick again. The nodes of the graph are only
+     * walked if it gained or lost nodes, or to verify them every few seconds.
+     */
+    private void updateLayout(
+        ConduitType<EnergyConduitData> type,
+        ServerLevel level,
+        Collection<ConduitNode<EnergyConduitData>> nodes,
+        EnergyGraphContext context,
+        long gameTime
+    ) {
+        boolean nodesChanged = context.syncNodes(nodes, gameTime);
+        if (buffered && (nodesChanged || context.buffersChanged)) {
+            splitBuffer(level, context);
+            collectBuffers(level, nodes, context);
+        }
+        var dirtyNodes = context.getDirtyNodes();
+        if (dirtyNodes.isEmpty()) return;
 
-            insertBalanced(sortedExtraInserts, excessPower);
+        for (EnergyChannel channel : context.channels) {
+            if (channel != null) channel.removeConnections(dirtyNodes);
+        }
+        boolean hasRedstoneControl = type.getMenuData().showRedstoneExtract();
+        var iterator = dirtyNodes.iterator();
+        while (iterator.hasNext()) {
+            long pos = iterator.nextLong();
+            var node = context.getNode(pos);
+            boolean gated = node != null && collectConnections(node, context, hasRedstoneControl);
+            context.redstone.update(pos, gated);
         }
+        dirtyNodes.clear();
+        if (strategy == EnergyDistributionStrategy.NEAREST_FIRST) sortByDistance(context, nodesChanged);
     }
 
-    private void handlePowerDeficit(
-        OrderedCapabilitiesWithMaxTransfer sortedInserts, OrderedCapabilitiesWithMaxTransfer sortedExtracts,
-        ExtractInsertData extractInsertData
+    /**
+     * Sorts the connections of a node into the channels of their colors. Nodes in chunks that don't tick are skipped
+     * until they do.
+     *
+     * @return whether the node has extract connections controlled by redstone
+     */
+    private static boolean collectConnections(
+        ConduitNode<EnergyConduitData> node, EnergyGraphContext context, boolean hasRedstoneControl
     ) {
-        int powerDeficit = sortedInserts.maxTransferAmount - sortedExtracts.maxTransferAmount;
-        OrderedCapabilitiesWithMaxTransfer sortedExtraExtracts = sortTransfers(
-            extractInsertData.insertAndExtracts.stream().map(Tuple::getB).toList(),
-            (energyStorage, amount) -> energyStorage.extractEnergy(amount, true)
-        );
-        for(var extract : sortedExtracts.caps) extract.extractEnergy(transferRate, false);
-        if (powerDeficit > sortedExtraExtracts.maxTransferAmount) {
-            for(var extract : sortedExtraExtracts.caps) extract.extractEnergy(transferRate, false);
-
-            int leftToInsert = sortedExtracts.maxTransferAmount + sortedExtraExtracts.maxTransferAmount;
-            insertBalanced(sortedInserts, leftToInsert);
-        } else {
-            for(var insert : sortedInserts.caps) insert.receiveEnergy(transferRate, false);
-
-            extractBalanced(sortedExtraExtracts, powerDeficit);
+        BlockPos pos = node.getPos();
+        if (!context.chunks.isLoaded(pos.asLong())) {
+            context.deferNode(pos.asLong());
+            return false;
         }
-    }
 
-    private void insertBalanced(OrderedCapabilitiesWithMaxTransfer sortedExtraInserts, int leftToInsert) {
-        for (int i = 0; i < sortedExtraInserts.caps.size(); i++) {
-            int toInsert = (int) Math.ceil(leftToInsert / (double) (sortedExtraInserts.caps.size() - i));
-            leftToInsert -= sortedExtraInserts.caps.get(i).receiveEnergy(toInsert, false);
-            if (leftToInsert <= 0) break;
+        boolean gated = false;
+        for (Direction direction : DIRECTIONS) {
+            var ioState = node.getIOState(direction).orElse(null);
+            if (ioState == null) continue;
+            if (ioState.insert().isPresent()) {
+                context.getChannel(ioState.insert().get()).addInsert(pos, direction);
+            }
+            if (ioState.extract().isEmpty()) continue;
+
+            RedstoneControl control = ioState.control();
+            if (!hasRedstoneControl || control == RedstoneControl.ALWAYS_ACTIVE) {
+                context.getChannel(ioState.extract().get()).addExtract(pos, direction, null, true);
+            } else if (control != RedstoneControl.NEVER_ACTIVE) {
+                context.getChannel(ioState.extract().get()).addExtract(pos, direction, ioState, false);
+                gated = true;
+            }
         }
+        return gated;
     }
 
-    private void extractBalanced(OrderedCapabilitiesWithMaxTransfer sortedExtracts, int leftToExtract) {
-        for (int i = 0; i < sortedExtracts.caps.size(); i++) {
-            int toExtract = (int) Math.ceil(leftToExtract / (double) (sortedExtracts.caps.size() - i));
-            leftToExtract -= sortedExtracts.caps.get(i).extractEnergy(toExtract, false);
-            if (leftToExtract <= 0) break;
+    /**
+     * Orders the connections of the changed channels by the distance to the nearest connection of the other side, so
+     * the nearest blocks are served first. Conduits next to each other count as connected.
+     *
+     * @param nodesChanged whether the graph gained or lost nodes, which changes the distances of all channels
+     */
+    private void sortByDistance(EnergyGraphContext context, boolean nodesChanged) {
+        for (EnergyChannel channel : context.channels) {
+            if (channel == null || !nodesChanged && !channel.dirty) continue;
+            if (channel.getInsertCount() == 0 || channel.getExtractCount() == 0) continue;
+            findDistances(context, channel, false);
+            channel.sortInserts(distances);
+            findDistances(context, channel, true);
+            channel.sortExtracts(distances);
         }
+        distances.clear();
     }
 
-    private <TData extends ConduitData<TData>> Map<BlockEntity, BlockCapabilityConnections> getCapabilitiesByBlocks(
-        ServerLevel level,
-        List<Connection<TData>> inserts,
-        List<IOAwareConduitTicker.Connection<TData>> extracts
-    ) {
-        Map<BlockEntity, BlockCapabilityConnections> capabilitiesByBlocks = new IdentityHashMap<>(
-            inserts.size() + extracts.size());
-
-        for (IOAwareConduitTicker.Connection<TData> insert : inserts) {
-            BlockEntity be = level.getBlockEntity(insert.move());
-            if (be == null) continue;
-            IEnergyStorage capability = be.getCapability(ForgeCapabilities.ENERGY, insert.dir().getOpposite())
-                .resolve()
-                .orElse(null);
-            if (capability == null) continue;
-            BlockCapabilityConnections blockCapabilityConnections = capabilitiesByBlocks.computeIfAbsent(
-                be,
-                k -> new BlockCapabilityConnections(new CapabilityConnections(capability), null)
-            );
-            Objects.requireNonNull(blockCapabilityConnections.getInsert()).increment();
+    /**
+     * Walks the conduits from the connections of one side of the channel and stores the distance of every reached
+     * conduit to the nearest of them. Conduits that can't be reached have the maximum distance.
+     *
+     * @param fromInserts whether the walk starts at the insert connections, otherwise at the extract connections
+     */
+    private void findDistances(EnergyGraphContext context, EnergyChannel channel, boolean fromInserts) {
+        distances.clear();
+        if (distanceQueue.length < context.getNodeCount()) distanceQueue = new long[context.getNodeCount()];
+        long[] queue = distanceQueue;
+        int head = 0;
+        int tail = 0;
+        int sourceCount = fromInserts ? channel.getInsertCount() : channel.getExtractCount();
+        for (int i = 0; i < sourceCount; i++) {
+            long pos = fromInserts ? channel.getInsertPos(i) : channel.getExtractPos(i);
+            if (!context.hasNode(pos) || distances.containsKey(pos)) continue;
+            distances.put(pos, 0);
+            queue[tail++] = pos;
         }
 
-        if (!capabilitiesByBlocks.isEmpty()) {
-            for (IOAwareConduitTicker.Connection<TData> extract : extracts) {
-                BlockEntity be = level.getBlockEntity(extract.move());
-                if (be == null) continue;
-                IEnergyStorage capability = be.getCapability(ForgeCapabilities.ENERGY, extract.dir().getOpposite())
-                    .resolve()
-                    .orElse(null);
-                if (capability == null) continue;
-                BlockCapabilityConnections blockCapabilityConnections = capabilitiesByBlocks.computeIfAbsent(
-                    be,
-                    k -> new BlockCapabilityConnections(null, new CapabilityConnections(capability))
-                );
-                if (blockCapabilityConnections.getExtract() == null) blockCapabilityConnections.setExtract(new CapabilityConnections(capability));
-                blockCapabilityConnections.getExtract().increment();
+        while (head < tail) {
+            long pos = queue[head++];
+            int distance = distances.get(pos) + 1;
+            for (Direction direction : DIRECTIONS) {
+                long neighbor = BlockPos.offset(pos, direction);
+                if (!context.hasNode(neighbor) || distances.containsKey(neighbor)) continue;
+                distances.put(neighbor, distance);
+                queue[tail++] = neighbor;
             }
         }
-
-        return capabilitiesByBlocks;
     }
 
-    private ExtractInsertData transformCapabilitiesByBlocks(
-        Map<BlockEntity, BlockCapabilityConnections> capabilitiesByBlock
-    ) {
-        List<CapabilityConnections> inserts = new ArrayList<>();
-        List<CapabilityConnections> extracts = new ArrayList<>();
-        List<Tuple<CapabilityConnections, CapabilityConnections>> insertAndExtracts = new ArrayList<>();
-
-        // I only use one capability for all energy transfer as I need to check if all the energy fits in the machine from all connected sides
-        for (var blockCapabilities : capabilitiesByBlock.values()) {
-            if (blockCapabilities.getInsert() == null) {
-                extracts.add(blockCapabilities.getExtract());
-            } else if (blockCapabilities.getExtract() == null) {
-                inserts.add(blockCapabilities.getInsert());
-            } else {
-                insertAndExtracts.add(new Tuple<>(blockCapabilities.getInsert(), blockCapabilities.getExtract()));
+    /**
+     * Hands the nodes that left the graph their share of the buffer, so the graphs it was split into keep the energy
+     * of their part. If the node holding the buffer left, the share of the remaining nodes moves to one of them.
+     */
+    private void splitBuffer(ServerLevel level, EnergyGraphContext context) {
+        var departedNodes = context.departedNodes;
+        var buffer = context.getBuffer();
+        if (departedNodes.isEmpty() || buffer == null) {
+            departedNodes.clear();
+            return;
+        }
+
+        int members = context.getBufferMembers();
+        BlockPos holderPos = null;
+        for (ConduitNode<EnergyConduitData> node : departedNodes) {
+            if (!(node.getConduitData() instanceof CustomEnergyConduitData data)) continue;
+            if (!context.chunks.isLoaded(node.getPos().asLong())) continue;
+            if (data == buffer) {
+                holderPos = node.getPos();
+                continue;
             }
+            // the remaining nodes keep at least one share
+            if (members <= 1) break;
+            data.takeShare(buffer, 1, members--);
+            onBufferReceived(level, node.getPos());
         }
+        departedNodes.clear();
 
-        return new ExtractInsertData(inserts, extracts, insertAndExtracts);
-    }
+        context.onBufferChanged();
+        if (holderPos == null) return;
 
-    private OrderedCapabilitiesWithMaxTransfer sortTransfers(
-        List<CapabilityConnections> capabilityConnectionsList, BiFunction<IEnergyStorage, Integer, Integer> getTransfer
-    ) {
-        int maxTransferAmount = 0;
-        List<Tuple<IEnergyStorage, Integer>> capabilitiesWithInsertAmounts = new ArrayList<>();
-        for (var capabilityConnections : capabilityConnectionsList) {
-            int transferAmount = getTransfer.apply(
-                capabilityConnections.capability,
-                transferRate * capabilityConnections.getCount()
-            );
-            if (transferAmount == 0) continue;
-            maxTransferAmount += transferAmount;
-            capabilitiesWithInsertAmounts.addAll(split(
-                capabilityConnections.capability,
-                capabilityConnections.getCount(),
-                transferAmount
-            ));
+        var staying = findBufferNode(context);
+        if (staying != null && members > 1) {
+            ((CustomEnergyConduitData) staying.getConduitData()).takeShare(buffer, members - 1, members);
         }
-        capabilitiesWithInsertAmounts.sort(Comparator.comparingInt(Tuple::getB));
+        onBufferReceived(level, holderPos);
+    }
 
-        List<IEnergyStorage> sortedInserts = new ArrayList<>();
-        for (var capabilityWithInsertAmount : capabilitiesWithInsertAmounts) {
-            sortedInserts.add(capabilityWithInsertAmount.getA());
+    /**
+     * Returns a loaded node of the graph that can hold a buffer, null if there is none.
+     */
+    @Nullable
+    private static ConduitNode<EnergyConduitData> findBufferNode(EnergyGraphContext context) {
+        for (ConduitNode<EnergyConduitData> node : context.getNodes()) {
+            if (node.getConduitData() instanceof CustomEnergyConduitData &&
+                context.chunks.isLoaded(node.getPos().asLong())) {
+                return node;
+            }
         }
-
-        return new OrderedCapabilitiesWithMaxTransfer(sortedInserts, maxTransferAmount);
+        return null;
     }
 
-    private List<Tuple<IEnergyStorage, Integer>> split(IEnergyStorage storage, int partCount, int amountToSplit) {
-        int part = (int) Math.ceil((double) amountToSplit / partCount);
-        List<Tuple<IEnergyStorage, Integer>> result = new ArrayList<>(partCount);
-        for (int i = 0; i < amountToSplit / part; i++) {
-            result.add(new Tuple<>(storage, part));
+    /**
+     * Marks the node at the given position as changed and lets the graph it belongs to collect its buffers again.
+     */
+    private void onBufferReceived(ServerLevel level, BlockPos pos) {
+        level.blockEntityChanged(pos);
+        long packedPos = pos.asLong();
+        for (EnergyGraphContext context : graphContexts.values()) {
+            if (context.level == level && context.hasNode(packedPos)) context.buffersChanged = true;
         }
-        if (amountToSplit % part != 0) result.add(new Tuple<>(storage, amountToSplit % part));
-        return result;
     }
 
-    private record OrderedCapabilitiesWithMaxTransfer(List<IEnergyStorage> caps, int maxTransferAmount) {}
-
-    private record ExtractInsertData(List<CapabilityConnections> inserts,
-                                     List<CapabilityConnections> extracts,
-                                     List<Tuple<CapabilityConnections, CapabilityConnections>> insertAndExtracts) {}
-
-    private static class BlockCapabilityConnections {
-        private @Nullable CapabilityConnections insertCapabilityConnections;
-        private @Nullable CapabilityConnections extractCapabilityConnections;
-
-        public BlockCapabilityConnections(@Nullable CapabilityConnections insertCapabilityConnections, @Nullable CapabilityConnections extractCapabilityConnections) {
-            this.insertCapabilityConnections = insertCapabilityConnections;
-            this.extractCapabilityConnections = extractCapabilityConnections;
+    /**
+     * Moves the buffered energy of all nodes into the data of a single node, so a transfer only has to update one
+     * node. The chunks of the changed nodes are marked for saving, as the conduits don't notice the change.
+     */
+    private static void collectBuffers(
+        ServerLevel level, Collection<ConduitNode<EnergyConduitData>> nodes, EnergyGraphContext context
+    ) {
+        CustomEnergyConduitData buffer = null;
+        BlockPos bufferPos = null;
+        int members = 0;
+        for (ConduitNode<EnergyConduitData> node : nodes) {
+            if (!(node.getConduitData() instanceof CustomEnergyConduitData data)) continue;
+            BlockPos pos = node.getPos();
+            if (!context.chunks.isLoaded(pos.asLong())) continue;
+            members++;
+            if (buffer == null) {
+                buffer = data;
+                bufferPos = pos;
+            } else if (!data.isEmpty()) {
+                buffer.takeBuffers(data);
+                level.blockEntityChanged(pos);
+            }
         }
+        if (buffer != null && !buffer.isEmpty()) level.blockEntityChanged(bufferPos);
+        context.setBuffer(buffer, bufferPos, members);
+    }
 
-        public @Nullable CapabilityConnections getInsert() {
-            return insertCapabilityConnections;
+    /**
+     * Checks the redstone gates of the extract connections if a signal may have changed and regroups the channels
+     * whose connections changed.
+     *
+     * @param retryUnloaded whether connections into chunks that didn't tick are tried again
+     */
+    private static void updateChannels(
+        ServerLevel level,
+        EnergyGraphContext context,
+        ColoredRedstoneProvider coloredRedstoneProvider,
+        long gameTime,
+        boolean retryUnloaded
+    ) {
+        boolean checkGates = context.redstone.needsCheck(gameTime);
+        for (EnergyChannel channel : context.channels) {
+            if (channel == null) continue;
+            if (checkGates && channel.hasGates()) {
+                for (int i = 0; i < channel.getExtractCount(); i++) {
+                    var gate = channel.getExtractGate(i);
+                    if (gate == null) continue;
+                    boolean active = isRedstoneActive(
+                        level,
+                        context.redstone,
+                        channel.getExtractPos(i),
+                        gate,
+                        coloredRedstoneProvider
+                    );
+                    channel.setExtractActive(i, active);
+                }
+            }
+            if (context.needsGrouping(channel, retryUnloaded)) context.group(channel, gameTime);
         }
+        // entries resolved during grouping don't cause another grouping
+        context.finishGrouping();
+        if (checkGates) context.redstone.onChecked(gameTime);
+    }
 
-        public @Nullable CapabilityConnections getExtract() {
-            return extractCapabilityConnections;
-        }
+    /**
+     * Checks the redstone control of an extracting connection. Takes the colored redstone of the graph and the
+     * signal of all neighbors into account.
+     */
+    private static boolean isRedstoneActive(
+        ServerLevel level,
+        EnergyRedstoneCache redstone,
+        long pos,
+        ConduitNode.IOState gate,
+        ColoredRedstoneProvider coloredRedstoneProvider
+    ) {
+        boolean hasSignal = redstone.hasNeighborSignal(pos) ||
+                            coloredRedstoneProvider.isRedstoneActive(level, BlockPos.of(pos), gate.redstoneChannel());
+        return gate.control().isActive(hasSignal);
+    }
 
-        public void setInsert(@Nullable CapabilityConnections insertCapabilityConnections) {
-            this.insertCapabilityConnections = insertCapabilityConnections;
+    /**
+     * Distributes the energy of all colors in a single pass. The colors are still distributed separately, but blocks
+     * connected through several colors are only simulated once and the colors share what they can transfer.
+     *
+     * @param transfers the amount of transfers to do at once, more than one to catch up on missed transfers
+     * @return the amount of energy inserted into the blocks
+     */
+    private long tickChannels(EnergyGraphContext context, long gameTime, int transfers) {
+        simulations = 0;
+        // a bit per color, sleeping is only checked once as it probes the blocks
+        int activeChannels = 0;
+        for (int i = 0; i < context.channels.length; i++) {
+            EnergyChannel channel = context.channels[i];
+            if (channel != null && isActive(channel, gameTime)) activeChannels |= 1 << i;
         }
+        if (activeChannels == 0) return 0;
+
+        long inserted = 0;
+        boolean bufferChanged = false;
+        context.startTick(getProbeLimit(transfers));
+        for (int i = 0; i < context.channels.length; i++) {
+            if ((activeChannels & 1 << i) == 0) continue;
+
+            EnergyChannel channel = context.channels[i];
+            var distributor = channel.distributor;
+            distributor.setTransferRate(transferRate * transfers);
+            // one transfer to all inserting connections
+            channel.prepareBuffer(transferRate * Math.max(channel.getInsertCount(), 1));
+            long channelTransferred = distributor.distribute();
+            channel.idleTracker.onTicked(
+                channel,
+                gameTime,
+                channelTransferred,
+                channel.getInsertCount(),
+                channel.getActiveExtractCount()
+            );
+            simulations += distributor.getSimulationCount();
+            if (channelTransferred == 0) continue;
 
-        public void setExtract(@Nullable CapabilityConnections extractCapabilityConnections) {
-            this.extractCapabilityConnections = extractCapabilityConnections;
+            // planned and committed before the next color, as it depends on what this one committed
+            distributor.plan(PARALLEL_PLANNING && distributor.getTransferCount() >= PARALLEL_PLANNING_THRESHOLD);
+            inserted += channel.commit();
+            if (channel.storeBuffer()) bufferChanged = true;
         }
+        if (bufferChanged) context.onBufferChanged();
+        return inserted;
     }
 
-    private static class CapabilityConnections {
-        public final IEnergyStorage capability;
-        private int count = 0;
+    /**
+     * Returns the most the graph can transfer to or from a single block in a tick, a connection on every side of the
+     * block at the transfer rate of all transfers.
+     */
+    private int getProbeLimit(int transfers) {
+        if (unbounded) return Integer.MAX_VALUE;
+        long limit = Math.min(transferRate, Integer.MAX_VALUE) * transfers * DIRECTIONS.length;
+        return (int) Math.min(limit, Integer.MAX_VALUE);
+    }
 
-        public CapabilityConnections(IEnergyStorage capability) {
-            this.capability = capability;
+    /**
+     * Records the metrics of a transfer run of the graph, including runs of sleeping graphs that didn't transfer.
+     *
+     * @param nanos    the time the run took, from updating the layout to the last commit
+     * @param inserted the amount of energy the blocks accepted
+     */
+    private void recordMetrics(EnergyGraphContext context, long gameTime, int transfers, long nanos, long inserted) {
+        var nodes = context.getNodes();
+        if (nodes.isEmpty()) return;
+
+        int endpoints = 0;
+        for (EnergyChannel channel : context.channels) {
+            if (channel != null) endpoints += channel.distributor.getBlockCount();
         }
+        context.getMetrics(conduit).record(
+            gameTime,
+            nodes.iterator().next().getPos().asLong(),
+            (long) Math.max(transfers, 1) * tickInterval * getTickRate(),
+            nanos,
+            endpoints,
+            simulations,
+            inserted
+        );
+    }
 
-        public int getCount() {
-            return count;
+    /**
+     * Checks whether the given channel has blocks to distribute between and isn't asleep. With a buffer, a single
+     * side is enough.
+     */
+    private static boolean isActive(EnergyChannel channel, long gameTime) {
+        if (channel.distributor.getBlockCount() == 0) return false;
+        int insertCount = channel.getInsertCount();
+        int extractCount = channel.getActiveExtractCount();
+        if (channel.buffer == null ? insertCount == 0 || extractCount == 0 : insertCount + extractCount == 0) {
+            return false;
         }
+        return !channel.idleTracker.isSleeping(gameTime, insertCount, extractCount);
+    }
 
-        public void increment() {
-            count++;
+    /**
+     * Drops the contexts of graphs that stopped ticking, e.g. because they were merged, split or unloaded,
+     * and prunes capabilities that are no longer requested by the remaining graphs.
+     */
+    private void sweepContexts(long gameTime) {
+        if (gameTime - lastContextSweep < CONTEXT_SWEEP_INTERVAL) return;
+        lastContextSweep = gameTime;
+
+        var iterator = graphContexts.values().iterator();
+        while (iterator.hasNext()) {
+            EnergyGraphContext context = iterator.next();
+            if (gameTime - context.lastTick > CONTEXT_TIMEOUT) {
+                context.release();
+                iterator.remove();
+            } else {
+                context.capabilities.prune(gameTime - CONTEXT_TIMEOUT);
+            }
         }
     }
 }
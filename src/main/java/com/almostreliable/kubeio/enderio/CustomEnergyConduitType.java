@@ -1,5 +1,6 @@
 package com.almostreliable.kubeio.enderio;
 
+import com.almostreliable.kubeio.energy.EnergyDistributionStrategy;
 import com.enderio.api.conduit.ConduitMenuData;
 import com.enderio.api.conduit.ConduitType;
 import com.enderio.api.conduit.TieredConduit;
@@ -16,6 +17,8 @@ import net.minecraftforge.common.capabilities.ForgeCapabilities;
 import net.minecraftforge.common.util.LazyOptional;
 import net.minecraftforge.energy.IEnergyStorage;
 
+import java.util.Set;
+
 public class CustomEnergyConduitType extends TieredConduit<EnergyConduitData> {
 
     private static final ConduitMenuData MENU_DATA = new ConduitMenuData.Simple(
@@ -28,14 +31,70 @@ public class CustomEnergyConduitType extends TieredConduit<EnergyConduitData> {
     );
 
     private final CustomEnergyConduitTicker ticker;
+    private final boolean buffered;
 
     public CustomEnergyConduitType(ResourceLocation tierName, int transferRate) {
+        this(tierName, transferRate, 1);
+    }
+
+    public CustomEnergyConduitType(ResourceLocation tierName, int transferRate, int tickInterval) {
+        this(tierName, transferRate, tickInterval, false);
+    }
+
+    /**
+     * @param buffered whether the networks buffer energy, sized to one transfer to all inserting connections
+     */
+    public CustomEnergyConduitType(ResourceLocation tierName, int transferRate, int tickInterval, boolean buffered) {
+        this(tierName, transferRate, tickInterval, buffered, EnergyDistributionStrategy.FAIR);
+    }
+
+    /**
+     * @param strategy decides which blocks get the energy if not all of them can be served
+     */
+    public CustomEnergyConduitType(
+        ResourceLocation tierName,
+        int transferRate,
+        int tickInterval,
+        boolean buffered,
+        EnergyDistributionStrategy strategy
+    ) {
+        this(
+            tierName,
+            transferRate,
+            new CustomEnergyConduitTicker(tierName, transferRate, tickInterval, false, buffered, strategy),
+            buffered
+        );
+    }
+
+    private CustomEnergyConduitType(
+        ResourceLocation tierName, int tier, CustomEnergyConduitTicker ticker, boolean buffered
+    ) {
         super(
             new ResourceLocation("forge:energy"),
             tierName,
-            transferRate
+            tier
+        );
+        this.ticker = ticker;
+        this.buffered = buffered;
+    }
+
+    /**
+     * Creates an energy conduit without a transfer rate. It ranks above all other custom energy conduits.
+     */
+    public static CustomEnergyConduitType unbounded(ResourceLocation tierName, int tickInterval) {
+        return new CustomEnergyConduitType(
+            tierName,
+            Integer.MAX_VALUE,
+            new CustomEnergyConduitTicker(
+                tierName,
+                Integer.MAX_VALUE,
+                tickInterval,
+                true,
+                false,
+                EnergyDistributionStrategy.FAIR
+            ),
+            false
         );
-        this.ticker = new CustomEnergyConduitTicker(transferRate);
     }
 
     @Override
@@ -50,7 +109,7 @@ public class CustomEnergyConduitType extends TieredConduit<EnergyConduitData> {
 
     @Override
     public EnergyConduitData createConduitData(Level level, BlockPos pos) {
-        return new EnergyConduitData();
+        return buffered ? new CustomEnergyConduitData() : new EnergyConduitData();
     }
 
     @Override
@@ -72,6 +131,20 @@ public class CustomEnergyConduitType extends TieredConduit<EnergyConduitData> {
         return super.getDefaultConnection(level, pos, direction);
     }
 
+    @Override
+    public void onConnectionsUpdated(
+        EnergyConduitData data, Level level, BlockPos pos, Set<Direction> connectedSides
+    ) {
+        super.onConnectionsUpdated(data, level, pos, connectedSides);
+        ticker.onConnectionsChanged(level, pos);
+    }
+
+    @Override
+    public void onRemoved(EnergyConduitData data, Level level, BlockPos pos) {
+        super.onRemoved(data, level, pos);
+        ticker.onNodeRemoved(level, pos);
+    }
+
     @Override
     public boolean canBeReplacedBy(ConduitType<?> other) {
         // allow replacing with simple energy conduit as it's infinite
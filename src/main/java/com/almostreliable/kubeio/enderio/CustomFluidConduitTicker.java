@@ -0,0 +1,62 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraftforge.common.capabilities.ForgeCapabilities;
+import net.minecraftforge.fluids.FluidStack;
+import net.minecraftforge.fluids.capability.IFluidHandler;
+import org.slf4j.Logger;
+
+/**
+ * Moves fluids from the extracting to the inserting connections of a graph. A graph can carry any fluid.
+ */
+final class CustomFluidConduitTicker extends BatchedConduitTicker<CustomConduitData, IFluidHandler> {
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    private final int budget;
+
+    /**
+     * @param transferRate the amount of fluid in mB an extracting connection moves per tick
+     */
+    CustomFluidConduitTicker(int transferRate, int tickInterval) {
+        super(ForgeCapabilities.FLUID_HANDLER, tickInterval);
+        this.budget = (int) Math.min((long) transferRate * tickInterval, Integer.MAX_VALUE);
+    }
+
+    @Override
+    int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Fills the target with what the source can drain and only drains what the target actually took, so fluid the
+     * target doesn't take after all never leaves the source. Should the source drain less than it simulated, the
+     * difference is taken back from the target.
+     */
+    @Override
+    int move(ServerLevel level, BlockPos sourcePos, IFluidHandler source, IFluidHandler target, int budget) {
+        FluidStack available = source.drain(budget, IFluidHandler.FluidAction.SIMULATE);
+        if (available.isEmpty()) return 0;
+        int filled = target.fill(available, IFluidHandler.FluidAction.EXECUTE);
+        if (filled <= 0) return 0;
+
+        FluidStack toDrain = available.copy();
+        toDrain.setAmount(filled);
+        int drained = source.drain(toDrain, IFluidHandler.FluidAction.EXECUTE).getAmount();
+        if (drained < filled) {
+            FluidStack excess = available.copy();
+            excess.setAmount(filled - drained);
+            int reclaimed = target.drain(excess, IFluidHandler.FluidAction.EXECUTE).getAmount();
+            if (reclaimed < excess.getAmount()) {
+                LOGGER.warn(
+                    "Fluid conduit source drained {} mB of {} less than it simulated",
+                    excess.getAmount() - reclaimed,
+                    excess.getFluid()
+                );
+            }
+        }
+        return drained;
+    }
+}
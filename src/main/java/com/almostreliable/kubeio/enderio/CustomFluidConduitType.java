@@ -0,0 +1,63 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.enderio.api.conduit.ConduitMenuData;
+import com.enderio.api.conduit.TieredConduit;
+import com.enderio.api.conduit.ticker.ConduitTicker;
+import com.enderio.api.misc.RedstoneControl;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraftforge.common.capabilities.ForgeCapabilities;
+
+public class CustomFluidConduitType extends TieredConduit<CustomConduitData> {
+
+    private static final ConduitMenuData MENU_DATA = new ConduitMenuData.Simple(
+        false,
+        false,
+        false,
+        true,
+        true,
+        true
+    );
+
+    private final CustomFluidConduitTicker ticker;
+
+    /**
+     * @param transferRate the amount of fluid in mB an extracting connection moves per tick
+     * @param tickInterval the amount of ticks between two operations, which move the fluid of all ticks in between
+     */
+    public CustomFluidConduitType(ResourceLocation tierName, int transferRate, int tickInterval) {
+        super(new ResourceLocation("forge:fluid"), tierName, transferRate);
+        this.ticker = new CustomFluidConduitTicker(transferRate, tickInterval);
+    }
+
+    @Override
+    public ConduitTicker<CustomConduitData> getTicker() {
+        return ticker;
+    }
+
+    @Override
+    public ConduitMenuData getMenuData() {
+        return MENU_DATA;
+    }
+
+    @Override
+    public CustomConduitData createConduitData(Level level, BlockPos pos) {
+        return new CustomConduitData();
+    }
+
+    @Override
+    public ConduitConnectionData getDefaultConnection(Level level, BlockPos pos, Direction direction) {
+        BlockEntity blockEntity = level.getBlockEntity(pos.relative(direction));
+        if (blockEntity == null) return super.getDefaultConnection(level, pos, direction);
+
+        // only insert by default, so placing a conduit doesn't start to empty the blocks next to it
+        if (blockEntity.getCapability(ForgeCapabilities.FLUID_HANDLER, direction.getOpposite()).isPresent()) {
+            return new ConduitConnectionData(true, false, RedstoneControl.ALWAYS_ACTIVE);
+        }
+
+        return super.getDefaultConnection(level, pos, direction);
+    }
+}
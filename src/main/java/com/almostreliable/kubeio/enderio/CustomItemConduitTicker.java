@@ -0,0 +1,66 @@
+package com.almostreliable.kubeio.enderio;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.block.Block;
+import net.minecraftforge.common.capabilities.ForgeCapabilities;
+import net.minecraftforge.items.IItemHandler;
+import net.minecraftforge.items.ItemHandlerHelper;
+
+/**
+ * Moves items in whole stacks, slot by slot, from the extracting to the inserting connections of a graph.
+ */
+final class CustomItemConduitTicker extends BatchedConduitTicker<CustomConduitData, IItemHandler> {
+
+    static final int STACK_SIZE = 64;
+
+    private final int budget;
+
+    /**
+     * @param stacksPerOperation the amount of stacks an extracting connection moves per operation, a stack counts as
+     *                           64 items
+     */
+    CustomItemConduitTicker(int stacksPerOperation, int tickInterval) {
+        super(ForgeCapabilities.ITEM_HANDLER, tickInterval);
+        this.budget = stacksPerOperation * STACK_SIZE;
+    }
+
+    @Override
+    int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Only extracts what the target accepted in a simulation and inserts exactly what was extracted. Items the target
+     * doesn't take after all go back to the source, or are dropped at the source if it doesn't take them either.
+     */
+    @Override
+    int move(ServerLevel level, BlockPos sourcePos, IItemHandler source, IItemHandler target, int budget) {
+        int moved = 0;
+        for (int slot = 0; slot < source.getSlots() && moved < budget; slot++) {
+            ItemStack available = source.extractItem(slot, budget - moved, true);
+            if (available.isEmpty()) continue;
+            ItemStack rejected = ItemHandlerHelper.insertItem(target, available, true);
+            int accepted = available.getCount() - rejected.getCount();
+            if (accepted == 0) continue;
+
+            ItemStack extracted = source.extractItem(slot, accepted, false);
+            if (extracted.isEmpty()) continue;
+            ItemStack rest = ItemHandlerHelper.insertItem(target, extracted, false);
+            moved += extracted.getCount() - rest.getCount();
+            if (!rest.isEmpty()) pushBack(level, sourcePos, source, slot, rest);
+        }
+        return moved;
+    }
+
+    /**
+     * Returns items to the source, into the slot they came from first. What the source doesn't take is dropped at its
+     * position, so no items are lost.
+     */
+    private static void pushBack(ServerLevel level, BlockPos pos, IItemHandler source, int slot, ItemStack stack) {
+        ItemStack rest = source.insertItem(slot, stack, false);
+        if (!rest.isEmpty()) rest = ItemHandlerHelper.insertItem(source, rest, false);
+        if (!rest.isEmpty()) Block.popResource(level, pos, rest);
+    }
+}
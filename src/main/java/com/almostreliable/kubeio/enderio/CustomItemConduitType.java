@@ -0,0 +1,68 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.enderio.api.conduit.ConduitMenuData;
+import com.enderio.api.conduit.TieredConduit;
+import com.enderio.api.conduit.ticker.ConduitTicker;
+import com.enderio.api.misc.RedstoneControl;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraftforge.common.capabilities.ForgeCapabilities;
+
+public class CustomItemConduitType extends TieredConduit<CustomConduitData> {
+
+    private static final ConduitMenuData MENU_DATA = new ConduitMenuData.Simple(
+        false,
+        false,
+        false,
+        true,
+        true,
+        true
+    );
+
+    private final CustomItemConduitTicker ticker;
+
+    /**
+     * @param stacksPerOperation the amount of stacks an extracting connection moves per operation
+     * @param tickInterval       the amount of ticks between two operations
+     */
+    public CustomItemConduitType(ResourceLocation tierName, int stacksPerOperation, int tickInterval) {
+        super(
+            new ResourceLocation("forge:item"),
+            tierName,
+            // ranked by throughput in items per tick
+            Math.max(stacksPerOperation * CustomItemConduitTicker.STACK_SIZE / tickInterval, 1)
+        );
+        this.ticker = new CustomItemConduitTicker(stacksPerOperation, tickInterval);
+    }
+
+    @Override
+    public ConduitTicker<CustomConduitData> getTicker() {
+        return ticker;
+    }
+
+    @Override
+    public ConduitMenuData getMenuData() {
+        return MENU_DATA;
+    }
+
+    @Override
+    public CustomConduitData createConduitData(Level level, BlockPos pos) {
+        return new CustomConduitData();
+    }
+
+    @Override
+    public ConduitConnectionData getDefaultConnection(Level level, BlockPos pos, Direction direction) {
+        BlockEntity blockEntity = level.getBlockEntity(pos.relative(direction));
+        if (blockEntity == null) return super.getDefaultConnection(level, pos, direction);
+
+        // only insert by default, so placing a conduit doesn't start to empty the blocks next to it
+        if (blockEntity.getCapability(ForgeCapabilities.ITEM_HANDLER, direction.getOpposite()).isPresent()) {
+            return new ConduitConnectionData(true, false, RedstoneControl.ALWAYS_ACTIVE);
+        }
+
+        return super.getDefaultConnection(level, pos, direction);
+    }
+}
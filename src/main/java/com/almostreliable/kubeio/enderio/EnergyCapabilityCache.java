@@ -0,0 +1,311 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.almostreliable.kubeio.energy.EnergyEndpoint;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraftforge.common.capabilities.ForgeCapabilities;
+import net.minecraftforge.common.util.LazyOptional;
+import net.minecraftforge.common.util.NonNullConsumer;
+import net.minecraftforge.energy.IEnergyStorage;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Caches the resolved {@link IEnergyStorage} capabilities of a single conduit graph.
+ * <p>
+ * Entries are dropped when the capability is invalidated, when the block entity is removed or when a block update
+ * happens at the cached position. Block entities are only referenced weakly. Storages are held until their capability
+ * is invalidated, which also happens when their chunk unloads, so entries pointing into unloaded chunks don't keep them
+ * alive.
+ * <p>
+ * Capabilities can't be unsubscribed from, so each capability gets a single listener that is handed over to the
+ * newest entry whenever the capability is resolved again.
+ */
+final class EnergyCapabilityCache {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    // the maximum amount of ticks of the graph a side is skipped for while it has nothing to transfer, it stays below
+    // the idle threshold of EnergyIdleTracker, so a woken channel sees the side again before it goes back to sleep
+    private static final int MAX_PROBE_INTERVAL = 16;
+
+    private final Long2ObjectOpenHashMap<Endpoint> endpoints = new Long2ObjectOpenHashMap<>();
+    private final Map<LazyOptional<IEnergyStorage>, InvalidationListener> listeners = new WeakHashMap<>();
+    private final ServerLevel level;
+    private final BlockUpdateTracker.Listener listener;
+    // counts the removed entries, so users of the entries know when to resolve them again
+    int version;
+    int tickStamp;
+    // the most the graph can ask of a side in the current tick, the sides are simulated with it instead of the int
+    // maximum, which overflows the arithmetic of some storages
+    int probeLimit = Integer.MAX_VALUE;
+
+    /**
+     * @param listener the listener to register for block updates at cached positions, it's expected to call
+     *                 {@link #invalidate(long)}
+     */
+    EnergyCapabilityCache(ServerLevel level, BlockUpdateTracker.Listener listener) {
+        this.level = level;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the cached capability of the block at the given packed position, accessed from the given side.
+     * Resolves and caches the capability if there is no valid entry yet.
+     */
+    @Nullable
+    Entry get(long pos, Direction side, long gameTime) {
+        Endpoint endpoint = endpoints.get(pos);
+        Entry entry = endpoint == null ? null : endpoint.sides[side.ordinal()];
+        if (entry != null && entry.isValid()) {
+            entry.lastUsed = gameTime;
+            return entry;
+        }
+
+        BlockEntity blockEntity = level.getBlockEntity(BlockPos.of(pos));
+        if (blockEntity == null) return null;
+        LazyOptional<IEnergyStorage> capability = blockEntity.getCapability(ForgeCapabilities.ENERGY, side);
+        IEnergyStorage storage = capability.resolve().orElse(null);
+        if (storage == null) return null;
+
+        if (endpoint == null) {
+            endpoint = new Endpoint(this);
+            endpoints.put(pos, endpoint);
+            BlockUpdateTracker.listen(level, pos, listener);
+        }
+        entry = new Entry(endpoint, blockEntity, storage);
+        entry.lastUsed = gameTime;
+        listenTo(capability, entry);
+        endpoint.sides[side.ordinal()] = entry;
+        return entry;
+    }
+
+    /**
+     * Lets the given entry be invalidated with the capability, reusing the listener of an earlier entry.
+     */
+    private void listenTo(LazyOptional<IEnergyStorage> capability, Entry entry) {
+        InvalidationListener listener = listeners.get(capability);
+        if (listener == null) {
+            listener = new InvalidationListener(this);
+            listeners.put(capability, listener);
+            capability.addListener(listener);
+        }
+        listener.entry = entry;
+    }
+
+    void invalidate(long pos) {
+        if (endpoints.remove(pos) != null) {
+            version++;
+            BlockUpdateTracker.forget(level, pos, listener);
+        }
+    }
+
+    /**
+     * Removes all entries that weren't requested since the given game time.
+     */
+    void prune(long unusedSince) {
+        var iterator = Long2ObjectMaps.fastIterator(endpoints);
+        while (iterator.hasNext()) {
+            Long2ObjectMap.Entry<Endpoint> mapEntry = iterator.next();
+            Entry[] sides = mapEntry.getValue().sides;
+            boolean used = false;
+            for (int i = 0; i < sides.length; i++) {
+                if (sides[i] == null) continue;
+                if (sides[i].lastUsed < unusedSince || !sides[i].isValid()) {
+                    sides[i] = null;
+                    version++;
+                } else {
+                    used = true;
+                }
+            }
+            if (!used) {
+                iterator.remove();
+                BlockUpdateTracker.forget(level, mapEntry.getLongKey(), listener);
+            }
+        }
+    }
+
+    void release() {
+        for (long pos : endpoints.keySet()) {
+            BlockUpdateTracker.forget(level, pos, listener);
+        }
+        endpoints.clear();
+        // the capabilities keep their listeners, they shouldn't keep the entries as well
+        for (InvalidationListener invalidationListener : listeners.values()) {
+            invalidationListener.entry = null;
+        }
+        listeners.clear();
+    }
+
+    /**
+     * All cached capabilities of a single block position.
+     * <p>
+     * The stamp and block are used by the ticker to group connections by block without a lookup map.
+     * <p>
+     * As an {@link EnergyEndpoint}, it's shared by all colors of a graph. Each side of the block is simulated once per
+     * tick with the first valid capability it was connected through, and the colors draw from what's left of it. The
+ * simulation asks for the most the graph can transfer to a block in the tick, not for everything the block could take.
+     * <p>
+     * A side that keeps reporting nothing to transfer, like a full battery or a solar panel at night, is only probed
+     * again on a doubling interval. It's probed every tick again after the first non-zero result. Block updates drop
+     * the endpoint from the cache, so they reset the interval as well.
+     */
+    static final class Endpoint implements EnergyEndpoint {
+
+        private final EnergyCapabilityCache cache;
+        private final Entry[] sides = new Entry[DIRECTIONS.length];
+        int stamp = -1;
+        int block;
+
+        @Nullable private Entry insertEntry;
+        @Nullable private Entry extractEntry;
+        private int tickStamp = -1;
+        private int insertBudget;
+        private int extractBudget;
+        private final ProbeBackoff insertBackoff = new ProbeBackoff();
+        private final ProbeBackoff extractBackoff = new ProbeBackoff();
+
+        private Endpoint(EnergyCapabilityCache cache) {
+            this.cache = cache;
+        }
+
+        void addInsert(Entry entry) {
+            if (insertEntry == null || !insertEntry.isValid()) insertEntry = entry;
+        }
+
+        void addExtract(Entry entry) {
+            if (extractEntry == null || !extractEntry.isValid()) extractEntry = entry;
+        }
+
+        private void startTick() {
+            if (tickStamp == cache.tickStamp) return;
+            tickStamp = cache.tickStamp;
+            insertBudget = -1;
+            extractBudget = -1;
+        }
+
+        @Override
+        public int receiveEnergy(int maxReceive, boolean simulate) {
+            IEnergyStorage storage = insertEntry == null ? null : insertEntry.getStorage();
+            if (storage == null) return 0;
+            startTick();
+            if (insertBudget < 0) {
+                insertBudget = insertBackoff.isWaiting(cache.tickStamp) ? 0 :
+                    insertBackoff.record(cache.tickStamp, storage.receiveEnergy(cache.probeLimit, true));
+            }
+            if (simulate) return Math.min(maxReceive, insertBudget);
+
+            int received = storage.receiveEnergy(maxReceive, false);
+            insertBudget = Math.max(0, insertBudget - received);
+            return received;
+        }
+
+        @Override
+        public int extractEnergy(int maxExtract, boolean simulate) {
+            IEnergyStorage storage = extractEntry == null ? null : extractEntry.getStorage();
+            if (storage == null) return 0;
+            startTick();
+            if (extractBudget < 0) {
+                extractBudget = extractBackoff.isWaiting(cache.tickStamp) ? 0 :
+                    extractBackoff.record(cache.tickStamp, storage.extractEnergy(cache.probeLimit, true));
+            }
+            if (simulate) return Math.min(maxExtract, extractBudget);
+
+            int extracted = storage.extractEnergy(maxExtract, false);
+            extractBudget = Math.max(0, extractBudget - extracted);
+            return extracted;
+        }
+    }
+
+    /**
+     * Tracks how long a side of an endpoint is skipped after it had nothing to transfer, counted in ticks of the graph.
+     */
+    private static final class ProbeBackoff {
+
+        private int interval;
+        private int retryStamp;
+
+        private boolean isWaiting(int tickStamp) {
+            return tickStamp - retryStamp < 0;
+        }
+
+        /**
+         * Records the result of a probe and schedules the next one.
+         *
+         * @return the given result
+         */
+        private int record(int tickStamp, int result) {
+            if (result > 0) {
+                interval = 0;
+                return result;
+            }
+            // the first empty probe keeps the regular interval, so a single empty tick doesn't cause a delay
+            interval = interval == 0 ? 1 : Math.min(interval * 2, MAX_PROBE_INTERVAL);
+            retryStamp = tickStamp + interval;
+            return result;
+        }
+    }
+
+    /**
+     * Invalidates the newest entry of a capability when the capability is invalidated.
+     */
+    private static final class InvalidationListener implements NonNullConsumer<LazyOptional<IEnergyStorage>> {
+
+        private final EnergyCapabilityCache cache;
+        @Nullable private Entry entry;
+
+        private InvalidationListener(EnergyCapabilityCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public void accept(LazyOptional<IEnergyStorage> capability) {
+            cache.listeners.remove(capability);
+            if (entry == null) return;
+            entry.invalidate();
+            entry = null;
+        }
+    }
+
+    static final class Entry {
+
+        final Endpoint endpoint;
+        private final WeakReference<BlockEntity> blockEntity;
+        @Nullable private IEnergyStorage storage;
+        private long lastUsed;
+
+        private Entry(Endpoint endpoint, BlockEntity blockEntity, IEnergyStorage storage) {
+            this.endpoint = endpoint;
+            this.blockEntity = new WeakReference<>(blockEntity);
+            this.storage = storage;
+        }
+
+        private void invalidate() {
+            storage = null;
+            endpoint.cache.version++;
+        }
+
+        boolean isValid() {
+            if (storage == null) return false;
+            BlockEntity be = blockEntity.get();
+            return be != null && !be.isRemoved();
+        }
+
+        @Nullable
+        BlockEntity getBlockEntity() {
+            return blockEntity.get();
+        }
+
+        @Nullable
+        IEnergyStorage getStorage() {
+            return storage;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.almostreliable.kubeio.energy.EnergyDistributor;
+import com.enderio.api.conduit.ConduitNode;
+import it.unimi.dsi.fastutil.booleans.BooleanArrays;
+import it.unimi.dsi.fastutil.bytes.ByteArrays;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.ObjectArrays;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * The connections of a single color of a graph, kept between ticks.
+ * <p>
+ * The connections are grouped into the blocks of the distributor once and only regrouped when a connection of the
+ * channel changes, a cached capability of the graph is invalidated or redstone toggles an extract connection. A tick
+ * then only simulates and commits the transfers.
+ */
+final class EnergyChannel {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    final EnergyDistributor distributor;
+    private final int color;
+    // the data holding the buffer of the graph, null if the conduit isn't buffered
+    @Nullable CustomEnergyConduitData buffer;
+    final EnergyIdleTracker idleTracker = new EnergyIdleTracker();
+    boolean dirty;
+    // whether grouping skipped connections into chunks that didn't tick
+    boolean hasUnloadedConnections;
+
+    // the cached capability of each block of the distributor, indexed by block
+    EnergyCapabilityCache.Entry[] blockEntries = new EnergyCapabilityCache.Entry[INITIAL_CAPACITY];
+
+    // connections packed as the position of the conduit and the direction of the connection
+    private long[] insertPositions = new long[INITIAL_CAPACITY];
+    private byte[] insertDirections = new byte[INITIAL_CAPACITY];
+    private int insertCount;
+    private long[] extractPositions = new long[INITIAL_CAPACITY];
+    private byte[] extractDirections = new byte[INITIAL_CAPACITY];
+    // the redstone gate of each extract connection, null if it's always active
+    private ConduitNode.IOState[] extractGates = new ConduitNode.IOState[INITIAL_CAPACITY];
+    private boolean[] extractActive = new boolean[INITIAL_CAPACITY];
+    private int extractCount;
+    private int gateCount;
+
+    // reused when sorting the connections by distance
+    private long[] sortKeys = new long[0];
+    private int[] sortTargets = new int[0];
+
+    EnergyChannel(EnergyDistributor distributor, int color) {
+        this.distributor = distributor;
+        this.color = color;
+    }
+
+    /**
+     * Removes all connections of the conduits at the given positions.
+     */
+    void removeConnections(LongSet positions) {
+        int inserts = 0;
+        for (int i = 0; i < insertCount; i++) {
+            if (positions.contains(insertPositions[i])) continue;
+            insertPositions[inserts] = insertPositions[i];
+            insertDirections[inserts] = insertDirections[i];
+            inserts++;
+        }
+
+        int extracts = 0;
+        for (int i = 0; i < extractCount; i++) {
+            if (positions.contains(extractPositions[i])) {
+                if (extractGates[i] != null) gateCount--;
+                continue;
+            }
+            extractPositions[extracts] = extractPositions[i];
+            extractDirections[extracts] = extractDirections[i];
+            extractGates[extracts] = extractGates[i];
+            extractActive[extracts] = extractActive[i];
+            extracts++;
+        }
+        Arrays.fill(extractGates, extracts, extractCount, null);
+
+        if (inserts != insertCount || extracts != extractCount) dirty = true;
+        insertCount = inserts;
+        extractCount = extracts;
+    }
+
+    void addInsert(BlockPos pos, Direction direction) {
+        if (insertCount == insertPositions.length) {
+            insertPositions = Arrays.copyOf(insertPositions, insertCount * 2);
+            insertDirections = Arrays.copyOf(insertDirections, insertCount * 2);
+        }
+        insertPositions[insertCount] = pos.asLong();
+        insertDirections[insertCount] = (byte) direction.ordinal();
+        insertCount++;
+        dirty = true;
+    }
+
+    /**
+     * @param gate the redstone gate of the connection, null if it's always active
+     */
+    void addExtract(BlockPos pos, Direction direction, @Nullable ConduitNode.IOState gate, boolean active) {
+        if (extractCount == extractPositions.length) {
+            int capacity = extractCount * 2;
+            extractPositions = Arrays.copyOf(extractPositions, capacity);
+            extractDirections = Arrays.copyOf(extractDirections, capacity);
+            extractGates = Arrays.copyOf(extractGates, capacity);
+            extractActive = Arrays.copyOf(extractActive, capacity);
+        }
+        extractPositions[extractCount] = pos.asLong();
+        extractDirections[extractCount] = (byte) direction.ordinal();
+        extractGates[extractCount] = gate;
+        extractActive[extractCount] = active;
+        extractCount++;
+        if (gate != null) gateCount++;
+        dirty = true;
+    }
+
+    int getInsertCount() {
+        return insertCount;
+    }
+
+    long getInsertPos(int index) {
+        return insertPositions[index];
+    }
+
+    Direction getInsertDirection(int index) {
+        return DIRECTIONS[insertDirections[index]];
+    }
+
+    int getExtractCount() {
+        return extractCount;
+    }
+
+    long getExtractPos(int index) {
+        return extractPositions[index];
+    }
+
+    Direction getExtractDirection(int index) {
+        return DIRECTIONS[extractDirections[index]];
+    }
+
+    @Nullable
+    ConduitNode.IOState getExtractGate(int index) {
+        return extractGates[index];
+    }
+
+    boolean isExtractActive(int index) {
+        return extractActive[index];
+    }
+
+    boolean hasGates() {
+        return gateCount > 0;
+    }
+
+    /**
+     * Updates the redstone state of an extract connection and marks the channel for regrouping if it changed.
+     */
+    void setExtractActive(int index, boolean active) {
+        if (extractActive[index] == active) return;
+        extractActive[index] = active;
+        dirty = true;
+    }
+
+    /**
+     * @return the amount of extract connections that are currently not blocked by redstone
+     */
+    int getActiveExtractCount() {
+        if (gateCount == 0) return extractCount;
+        int count = 0;
+        for (int i = 0; i < extractCount; i++) {
+            if (extractActive[i]) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Orders the insert connections by the given distances of their conduits, nearest first.
+     */
+    void sortInserts(Long2IntOpenHashMap distances) {
+        sortByDistance(insertPositions, insertCount, distances);
+        for (int i = 0; i < insertCount; i++) {
+            while (sortTargets[i] != i) {
+                int target = sortTargets[i];
+                LongArrays.swap(insertPositions, i, target);
+                ByteArrays.swap(insertDirections, i, target);
+                IntArrays.swap(sortTargets, i, target);
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Orders the extract connections by the given distances of their conduits, nearest first.
+     */
+    void sortExtracts(Long2IntOpenHashMap distances) {
+        sortByDistance(extractPositions, extractCount, distances);
+        for (int i = 0; i < extractCount; i++) {
+            while (sortTargets[i] != i) {
+                int target = sortTargets[i];
+                LongArrays.swap(extractPositions, i, target);
+                ByteArrays.swap(extractDirections, i, target);
+                ObjectArrays.swap(extractGates, i, target);
+                BooleanArrays.swap(extractActive, i, target);
+                IntArrays.swap(sortTargets, i, target);
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Fills the sort targets with the sorted index of each connection, so the connections can be swapped into place
+     * without copying them.
+     */
+    private void sortByDistance(long[] positions, int count, Long2IntOpenHashMap distances) {
+        if (sortKeys.length < count) {
+            sortKeys = new long[positions.length];
+            sortTargets = new int[positions.length];
+        }
+        // the distance in the upper half keeps connections of the same distance in their order
+        for (int i = 0; i < count; i++) {
+            sortKeys[i] = (long) distances.get(positions[i]) << 32 | i;
+        }
+        Arrays.sort(sortKeys, 0, count);
+        for (int i = 0; i < count; i++) {
+            sortTargets[(int) sortKeys[i]] = i;
+        }
+    }
+
+    /**
+     * Hands the buffer of the channel to the distributor for the next tick.
+     */
+    void prepareBuffer(long capacity) {
+        if (buffer != null) distributor.setBuffer(buffer.getBuffer(color), capacity);
+    }
+
+    /**
+     * Commits the decided transfers.
+     *
+     * @return the amount of energy inserted into the blocks
+     */
+    long commit() {
+        return distributor.commit();
+    }
+
+    /**
+     * Stores what's left after the last commit in the buffer.
+     *
+     * @return whether the energy in the buffer changed
+     */
+    boolean storeBuffer() {
+        if (buffer == null) return false;
+        long energy = distributor.getBufferedEnergy();
+        if (energy == buffer.getBuffer(color)) return false;
+        buffer.setBuffer(color, energy);
+        return true;
+    }
+
+    /**
+     * Drops the grouped blocks, so the buffers don't keep the entries of removed blocks.
+     */
+    void clearBlocks() {
+        Arrays.fill(blockEntries, 0, distributor.getBlockCount(), null);
+        distributor.clear();
+    }
+}
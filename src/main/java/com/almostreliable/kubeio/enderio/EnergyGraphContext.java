@@ -0,0 +1,361 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.almostreliable.kubeio.energy.EnergyDistributor;
+import com.enderio.api.conduit.ConduitNode;
+import com.enderio.api.misc.ColorControl;
+import com.enderio.conduits.common.conduit.type.energy.EnergyConduitData;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Holds the state a {@link CustomEnergyConduitTicker} keeps for a single conduit graph between ticks.
+ * <p>
+ * Besides the capability cache, this contains the connections of each color grouped by block. Only the connections of
+ * nodes that reported a change are collected again, so ticking a graph with a stable layout doesn't walk its nodes.
+ * The nodes are walked when the graph gained or lost nodes, e.g. because it was merged or split, and every few
+ * seconds to catch changes that weren't reported, e.g. a merge that kept the amount of nodes or a changed IO state.
+ */
+final class EnergyGraphContext implements BlockUpdateTracker.Listener {
+
+    // chunks starting to tick aren't reported, so what was skipped for chunks that didn't tick is tried again
+    private static final int UNLOADED_RETRY_INTERVAL = 20;
+    // the nodes are compared against their last IO state this often, in case a change wasn't reported
+    private static final int VERIFY_INTERVAL = 200;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    final ServerLevel level;
+    final EnergyCapabilityCache capabilities;
+    final EnergyRedstoneCache redstone;
+    final LoadedChunkCache chunks;
+    private final Supplier<EnergyDistributor> distributorFactory;
+    final int phase;
+    final EnergyChannel[] channels = new EnergyChannel[ColorControl.values().length];
+    long lastTick;
+    // set while the graph waits for its turn, the missed transfers are caught up when it ticks again
+    boolean deferred;
+    int missedTransfers;
+    private int blockStamp;
+    @Nullable private EnergyGraphMetrics metrics;
+
+    // the nodes of the graph by position, the connections of dirty nodes are collected again before the next tick
+    private final Long2ObjectOpenHashMap<ConduitNode<EnergyConduitData>> nodes = new Long2ObjectOpenHashMap<>();
+    // a hash of the IO states of each node when its connections were last collected
+    private final Long2IntOpenHashMap nodeStates = new Long2IntOpenHashMap();
+    private final LongOpenHashSet dirtyNodes = new LongOpenHashSet();
+    private final LongOpenHashSet unloadedNodes = new LongOpenHashSet();
+    private final LongOpenHashSet presentNodes = new LongOpenHashSet();
+    private final LongOpenHashSet removedNodes = new LongOpenHashSet();
+    private boolean nodesChanged = true;
+    private long nextRetry;
+    private long nextVerify;
+    private int cacheVersion;
+
+    @Nullable private CustomEnergyConduitData buffer;
+    @Nullable private BlockPos bufferPos;
+    // the loaded nodes the buffer was collected from, a node leaving the graph takes its share of the buffer with it
+    private int bufferMembers;
+    // nodes that left the graph without being removed, only recorded while the graph has a buffer
+    final List<ConduitNode<EnergyConduitData>> departedNodes = new ArrayList<>();
+    // set when nodes of the graph received energy from another graph, so the buffers are collected again
+    boolean buffersChanged;
+
+    EnergyGraphContext(ServerLevel level, Supplier<EnergyDistributor> distributorFactory, int phase) {
+        this.level = level;
+        this.capabilities = new EnergyCapabilityCache(level, this);
+        this.redstone = new EnergyRedstoneCache(level);
+        this.chunks = new LoadedChunkCache(level);
+        this.distributorFactory = distributorFactory;
+        this.phase = phase;
+    }
+
+    EnergyChannel getChannel(ColorControl color) {
+        EnergyChannel channel = channels[color.ordinal()];
+        if (channel == null) {
+            channel = new EnergyChannel(distributorFactory.get(), color.ordinal());
+            channel.buffer = buffer;
+            channels[color.ordinal()] = channel;
+        }
+        return channel;
+    }
+
+    EnergyGraphMetrics getMetrics(ResourceLocation conduit) {
+        if (metrics == null) metrics = new EnergyGraphMetrics(conduit, level.dimension());
+        return metrics;
+    }
+
+    @Override
+    public void onBlockUpdate(long pos) {
+        capabilities.invalidate(pos);
+        for (EnergyChannel channel : channels) {
+            if (channel != null) channel.idleTracker.wake();
+        }
+    }
+
+    /**
+     * Marks the connections of the node at the given position as changed.
+     *
+     * @return whether the node belongs to this graph
+     */
+    boolean onNodeChanged(long pos) {
+        if (!nodes.containsKey(pos)) return false;
+        dirtyNodes.add(pos);
+        return true;
+    }
+
+    /**
+     * Marks the node at the given position as removed. The graph may have been split, so the nodes are walked again.
+     */
+    void onNodeRemoved(long pos) {
+        if (!onNodeChanged(pos)) return;
+        nodesChanged = true;
+        removedNodes.add(pos);
+    }
+
+    /**
+     * Updates the known nodes if the graph gained or lost nodes, or if it's time to verify them. Added, replaced and
+     * removed nodes are marked dirty, as are nodes whose IO state changed. Nodes that left the graph without being
+     * removed are recorded as departed if the graph has a buffer.
+     *
+     * @return whether the nodes changed
+     */
+    boolean syncNodes(Collection<ConduitNode<EnergyConduitData>> graphNodes, long gameTime) {
+        boolean verify = gameTime >= nextVerify;
+        if (!nodesChanged && !verify && graphNodes.size() == nodes.size()) return false;
+        nodesChanged = false;
+        nextVerify = gameTime + VERIFY_INTERVAL;
+
+        boolean changed = false;
+        presentNodes.clear();
+        for (ConduitNode<EnergyConduitData> node : graphNodes) {
+            long pos = node.getPos().asLong();
+            presentNodes.add(pos);
+            int state = hashIOStates(node);
+            if (nodes.put(pos, node) != node) {
+                changed = true;
+                dirtyNodes.add(pos);
+            } else if (nodeStates.get(pos) != state) {
+                dirtyNodes.add(pos);
+            }
+            nodeStates.put(pos, state);
+        }
+        var iterator = Long2ObjectMaps.fastIterator(nodes);
+        while (iterator.hasNext()) {
+            Long2ObjectMap.Entry<ConduitNode<EnergyConduitData>> entry = iterator.next();
+            long pos = entry.getLongKey();
+            if (presentNodes.contains(pos)) continue;
+            if (buffer != null && !removedNodes.contains(pos)) departedNodes.add(entry.getValue());
+            iterator.remove();
+            nodeStates.remove(pos);
+            dirtyNodes.add(pos);
+            changed = true;
+        }
+        presentNodes.clear();
+        removedNodes.clear();
+        return changed;
+    }
+
+    private static int hashIOStates(ConduitNode<EnergyConduitData> node) {
+        int hash = 1;
+        for (Direction direction : DIRECTIONS) {
+            hash = 31 * hash + node.getIOState(direction).hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * Marks the nodes that were skipped for chunks that didn't tick as dirty again, if it's time to retry them.
+     *
+     * @return whether channels with connections into chunks that didn't tick should be grouped again
+     */
+    boolean retryUnloaded(long gameTime) {
+        if (gameTime < nextRetry) return false;
+        nextRetry = gameTime + UNLOADED_RETRY_INTERVAL;
+        var iterator = unloadedNodes.iterator();
+        while (iterator.hasNext()) {
+            long pos = iterator.nextLong();
+            if (nodes.containsKey(pos)) dirtyNodes.add(pos);
+        }
+        unloadedNodes.clear();
+        return true;
+    }
+
+    /**
+     * @return the positions of the nodes whose connections have to be collected again, cleared by the caller
+     */
+    LongOpenHashSet getDirtyNodes() {
+        return dirtyNodes;
+    }
+
+    /**
+     * @return the node at the given position, null if it's no longer part of the graph
+     */
+    @Nullable
+    ConduitNode<EnergyConduitData> getNode(long pos) {
+        return nodes.get(pos);
+    }
+
+    Collection<ConduitNode<EnergyConduitData>> getNodes() {
+        return nodes.values();
+    }
+
+    boolean hasNode(long pos) {
+        return nodes.containsKey(pos);
+    }
+
+    int getNodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Skips the node at the given position until its chunk ticks.
+     */
+    void deferNode(long pos) {
+        unloadedNodes.add(pos);
+    }
+
+    /**
+     * @param buffer  the data holding the buffer of the graph, null if there is no loaded node to hold it
+     * @param pos     the position of the node holding the buffer
+     * @param members the amount of loaded nodes the buffer was collected from
+     */
+    void setBuffer(@Nullable CustomEnergyConduitData buffer, @Nullable BlockPos pos, int members) {
+        this.buffer = buffer;
+        bufferPos = pos;
+        bufferMembers = members;
+        buffersChanged = false;
+        for (EnergyChannel channel : channels) {
+            if (channel == null || channel.buffer == buffer) continue;
+            channel.buffer = buffer;
+            channel.dirty = true;
+        }
+    }
+
+    @Nullable
+    CustomEnergyConduitData getBuffer() {
+        return buffer;
+    }
+
+    int getBufferMembers() {
+        return bufferMembers;
+    }
+
+    /**
+     * Marks the chunk of the node holding the buffer for saving, as the conduit doesn't notice the change.
+     */
+    void onBufferChanged() {
+        if (bufferPos != null) level.blockEntityChanged(bufferPos);
+    }
+
+    /**
+     * Checks whether the given channel has to be grouped again. All channels are, if a cached capability changed.
+     *
+     * @param retryUnloaded whether connections into chunks that didn't tick are tried again
+     */
+    boolean needsGrouping(EnergyChannel channel, boolean retryUnloaded) {
+        return channel.dirty || capabilities.version != cacheVersion ||
+               retryUnloaded && channel.hasUnloadedConnections;
+    }
+
+    /**
+     * Marks the capabilities resolved while grouping as known, so they don't cause another grouping.
+     */
+    void finishGrouping() {
+        cacheVersion = capabilities.version;
+    }
+
+    /**
+     * @param probeLimit the most the graph can transfer to or from a single block in this tick
+     */
+    void startTick(int probeLimit) {
+        capabilities.tickStamp++;
+        capabilities.probeLimit = probeLimit;
+    }
+
+    /**
+     * Groups the connections of the given channel by the block they point to and hands them to its distributor.
+     */
+    void group(EnergyChannel channel, long gameTime) {
+        channel.clearBlocks();
+        channel.dirty = false;
+        channel.hasUnloadedConnections = false;
+        channel.idleTracker.wake();
+        blockStamp++;
+        // nothing can be transferred if redstone disabled all extract connections, unless there is a buffer to drain
+        if (channel.getActiveExtractCount() == 0 && channel.buffer == null) return;
+
+        for (int i = 0; i < channel.getInsertCount(); i++) {
+            var entry = getCapability(channel, channel.getInsertPos(i), channel.getInsertDirection(i), gameTime);
+            if (entry == null) continue;
+            entry.endpoint.addInsert(entry);
+            channel.distributor.addInsert(blockOf(channel, entry), entry.endpoint);
+        }
+
+        if (channel.distributor.getBlockCount() > 0 || channel.buffer != null) {
+            for (int i = 0; i < channel.getExtractCount(); i++) {
+                if (!channel.isExtractActive(i)) continue;
+                var entry = getCapability(
+                    channel,
+                    channel.getExtractPos(i),
+                    channel.getExtractDirection(i),
+                    gameTime
+                );
+                if (entry == null) continue;
+                entry.endpoint.addExtract(entry);
+                channel.distributor.addExtract(blockOf(channel, entry), entry.endpoint);
+            }
+        }
+    }
+
+    @Nullable
+    private EnergyCapabilityCache.Entry getCapability(
+        EnergyChannel channel, long conduitPos, Direction direction, long gameTime
+    ) {
+        long pos = BlockPos.offset(conduitPos, direction);
+        if (!chunks.isLoaded(pos)) {
+            channel.hasUnloadedConnections = true;
+            return null;
+        }
+        var entry = capabilities.get(pos, direction.getOpposite(), gameTime);
+        return entry == null || entry.getStorage() == null ? null : entry;
+    }
+
+    /**
+     * Returns the distributor block of the given endpoint within the channel, adding a new one on first access.
+     */
+    private int blockOf(EnergyChannel channel, EnergyCapabilityCache.Entry entry) {
+        var endpoint = entry.endpoint;
+        if (endpoint.stamp == blockStamp) return endpoint.block;
+
+        int block = channel.distributor.addBlock();
+        if (block == channel.blockEntries.length) {
+            channel.blockEntries = Arrays.copyOf(channel.blockEntries, block * 2);
+        }
+        channel.blockEntries[block] = entry;
+        endpoint.stamp = blockStamp;
+        endpoint.block = block;
+        return block;
+    }
+
+    void release() {
+        capabilities.release();
+        redstone.release();
+        for (EnergyChannel channel : channels) {
+            if (channel != null) channel.clearBlocks();
+        }
+        if (metrics != null) EnergyGraphMetrics.untrack(metrics);
+    }
+}
@@ -0,0 +1,157 @@
+package com.almostreliable.kubeio.enderio;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.Level;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rolling tick metrics of a single custom energy conduit graph.
+ * <p>
+ * A sample is recorded for each transfer run of the graph. Graphs with a tick interval only run every few ticks, so
+ * each sample also holds the game ticks it covers, and the time and energy are reported per game tick. Metrics are
+ * only collected for a while after they were requested, so graphs don't pay for them otherwise. Only accessed from the
+ * server thread.
+ */
+public final class EnergyGraphMetrics {
+
+    private static final int WINDOW = 100;
+    private static final int COLLECTION_TICKS = 20 * 60;
+    private static final Set<EnergyGraphMetrics> TRACKED = Collections.newSetFromMap(new IdentityHashMap<>());
+    private static long collectUntil = Long.MIN_VALUE;
+
+    private final ResourceLocation conduit;
+    private final ResourceKey<Level> dimension;
+    private final long[] ticks = new long[WINDOW];
+    private final long[] nanos = new long[WINDOW];
+    private final int[] endpoints = new int[WINDOW];
+    private final int[] simulations = new int[WINDOW];
+    private final long[] transferred = new long[WINDOW];
+    private int samples;
+    private int cursor;
+    private long lastSample;
+    private long lastTicks;
+    private long pos;
+
+    EnergyGraphMetrics(ResourceLocation conduit, ResourceKey<Level> dimension) {
+        this.conduit = conduit;
+        this.dimension = dimension;
+    }
+
+    static boolean isCollecting(long gameTime) {
+        return gameTime < collectUntil;
+    }
+
+    /**
+     * Starts or extends the collection of metrics.
+     *
+     * @return whether metrics were already collected before
+     */
+    public static boolean startCollecting(long gameTime) {
+        boolean collecting = isCollecting(gameTime);
+        collectUntil = gameTime + COLLECTION_TICKS;
+        return collecting;
+    }
+
+    /**
+     * Returns the graphs with the highest time per game tick that were sampled within the window, or within the ticks
+     * their last sample covered if they run less often.
+     */
+    public static List<EnergyGraphMetrics> getHeaviest(long gameTime, int limit) {
+        TRACKED.removeIf(metrics -> gameTime - metrics.lastSample > Math.max(WINDOW, metrics.lastTicks));
+        List<EnergyGraphMetrics> heaviest = new ArrayList<>(TRACKED);
+        heaviest.sort(Comparator.comparingDouble(EnergyGraphMetrics::getNanosPerTick).reversed());
+        return heaviest.size() > limit ? heaviest.subList(0, limit) : heaviest;
+    }
+
+    static void untrack(EnergyGraphMetrics metrics) {
+        TRACKED.remove(metrics);
+    }
+
+    /**
+     * @param ticks       the game ticks the transfer run covers
+     * @param transferred the amount of energy the blocks accepted
+     */
+    void record(long gameTime, long pos, long ticks, long nanos, int endpoints, int simulations, long transferred) {
+        this.ticks[cursor] = ticks;
+        this.nanos[cursor] = nanos;
+        this.endpoints[cursor] = endpoints;
+        this.simulations[cursor] = simulations;
+        this.transferred[cursor] = transferred;
+        cursor = (cursor + 1) % WINDOW;
+        if (samples < WINDOW) samples++;
+        lastSample = gameTime;
+        lastTicks = ticks;
+        this.pos = pos;
+        TRACKED.add(this);
+    }
+
+    public ResourceLocation getConduit() {
+        return conduit;
+    }
+
+    public ResourceKey<Level> getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the position of a conduit of the graph
+     */
+    public BlockPos getPos() {
+        return BlockPos.of(pos);
+    }
+
+    public double getNanosPerTick() {
+        return perTick(sum(nanos));
+    }
+
+    /**
+     * @return the average amount of blocks the graph distributes between per transfer run
+     */
+    public double getAverageEndpoints() {
+        return average(endpoints);
+    }
+
+    public double getSimulationsPerTick() {
+        return perTick(sum(simulations));
+    }
+
+    /**
+     * @return the energy inserted into the blocks per game tick
+     */
+    public double getTransferredPerTick() {
+        return perTick(sum(transferred));
+    }
+
+    private double perTick(long sum) {
+        long totalTicks = sum(ticks);
+        return totalTicks == 0 ? 0 : (double) sum / totalTicks;
+    }
+
+    private long sum(long[] values) {
+        long sum = 0;
+        for (int i = 0; i < samples; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    private long sum(int[] values) {
+        long sum = 0;
+        for (int i = 0; i < samples; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    private double average(int[] values) {
+        return samples == 0 ? 0 : (double) sum(values) / samples;
+    }
+}
@@ -0,0 +1,109 @@
+package com.almostreliable.kubeio.enderio;
+
+import net.minecraftforge.energy.IEnergyStorage;
+
+import java.util.Arrays;
+
+/**
+ * Puts a color channel of a graph to sleep after it didn't transfer any energy for a while.
+ * <p>
+ * The sleep time doubles every time the channel wakes up from the timer and still has nothing to transfer. Block
+ * updates at connected blocks, changed connections and a changed energy level of a connected block wake the channel up
+ * immediately. The energy levels are probed with one block per tick while sleeping.
+ */
+final class EnergyIdleTracker {
+
+    private static final int IDLE_THRESHOLD = 20;
+    private static final int MAX_SLEEP_TICKS = 128;
+
+    private int idleTicks;
+    private int sleepTicks;
+    private long sleepUntil = -1;
+    private int insertConnections;
+    private int extractConnections;
+
+    private EnergyCapabilityCache.Entry[] probes = new EnergyCapabilityCache.Entry[8];
+    private int[] probeEnergy = new int[8];
+    private int probeCount;
+    private int probeCursor;
+
+    /**
+     * Checks whether the channel is still asleep. Wakes it up if the sleep time is over or a change was detected.
+     */
+    boolean isSleeping(long gameTime, int insertConnections, int extractConnections) {
+        if (sleepUntil < 0) return false;
+
+        if (gameTime >= sleepUntil) {
+            // keep the idle state, so the channel directly goes back to sleep for longer if nothing changed
+            sleepUntil = -1;
+            clearProbes();
+            return false;
+        }
+        if (insertConnections != this.insertConnections || extractConnections != this.extractConnections ||
+            probeChanged()) {
+            wake();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records the result of a full tick. Sends the channel to sleep if it was idle for long enough.
+     */
+    void onTicked(
+        EnergyChannel channel, long gameTime, long transferred, int insertConnections, int extractConnections
+    ) {
+        if (transferred > 0) {
+            idleTicks = 0;
+            sleepTicks = 0;
+            return;
+        }
+        if (++idleTicks < IDLE_THRESHOLD) return;
+
+        sleepTicks = sleepTicks == 0 ? 1 : Math.min(sleepTicks * 2, MAX_SLEEP_TICKS);
+        sleepUntil = gameTime + sleepTicks;
+        this.insertConnections = insertConnections;
+        this.extractConnections = extractConnections;
+        recordProbes(channel);
+    }
+
+    void wake() {
+        idleTicks = 0;
+        sleepTicks = 0;
+        sleepUntil = -1;
+        clearProbes();
+    }
+
+    private void recordProbes(EnergyChannel channel) {
+        probeCount = 0;
+        probeCursor = 0;
+        int blockCount = channel.distributor.getBlockCount();
+        if (probes.length < blockCount) {
+            probes = new EnergyCapabilityCache.Entry[blockCount];
+            probeEnergy = new int[blockCount];
+        }
+        for (int block = 0; block < blockCount; block++) {
+            EnergyCapabilityCache.Entry entry = channel.blockEntries[block];
+            IEnergyStorage storage = entry.getStorage();
+            if (storage == null) continue;
+            probes[probeCount] = entry;
+            probeEnergy[probeCount] = storage.getEnergyStored();
+            probeCount++;
+        }
+    }
+
+    private boolean probeChanged() {
+        if (probeCount == 0) return false;
+        if (probeCursor >= probeCount) probeCursor = 0;
+
+        int probe = probeCursor++;
+        EnergyCapabilityCache.Entry entry = probes[probe];
+        IEnergyStorage storage = entry.getStorage();
+        return storage == null || !entry.isValid() || storage.getEnergyStored() != probeEnergy[probe];
+    }
+
+    private void clearProbes() {
+        Arrays.fill(probes, 0, probeCount, null);
+        probeCount = 0;
+    }
+}
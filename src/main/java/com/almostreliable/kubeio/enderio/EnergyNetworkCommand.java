@@ -0,0 +1,65 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+import java.util.List;
+
+/**
+ * {@code /kubeio energy top} lists the custom energy conduit graphs that take the most time to tick.
+ */
+public final class EnergyNetworkCommand {
+
+    private static final int LIMIT = 10;
+
+    private EnergyNetworkCommand() {}
+
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(Commands.literal("kubeio")
+            .requires(source -> source.hasPermission(Commands.LEVEL_GAMEMASTERS))
+            .then(Commands.literal("energy")
+                .then(Commands.literal("top").executes(EnergyNetworkCommand::listHeaviest))));
+    }
+
+    private static int listHeaviest(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        long gameTime = source.getLevel().getGameTime();
+        if (!EnergyGraphMetrics.startCollecting(gameTime)) {
+            source.sendSuccess(
+                () -> Component.literal("Started collecting energy network metrics, run the command again shortly"),
+                false
+            );
+            return 0;
+        }
+
+        List<EnergyGraphMetrics> heaviest = EnergyGraphMetrics.getHeaviest(gameTime, LIMIT);
+        if (heaviest.isEmpty()) {
+            source.sendSuccess(() -> Component.literal("No custom energy networks ticked"), false);
+            return 0;
+        }
+
+        source.sendSuccess(() -> Component.literal("Heaviest custom energy networks:"), false);
+        for (int i = 0; i < heaviest.size(); i++) {
+            EnergyGraphMetrics metrics = heaviest.get(i);
+            var pos = metrics.getPos();
+            String line = String.format(
+                "%d. %.3f ms/t, %.0f endpoints, %.0f simulations/t, %.0f FE/t - %s in %s at %d %d %d",
+                i + 1,
+                metrics.getNanosPerTick() / 1_000_000,
+                metrics.getAverageEndpoints(),
+                metrics.getSimulationsPerTick(),
+                metrics.getTransferredPerTick(),
+                metrics.getConduit(),
+                metrics.getDimension().location(),
+                pos.getX(),
+                pos.getY(),
+                pos.getZ()
+            );
+            source.sendSuccess(() -> Component.literal(line), false);
+        }
+        return heaviest.size();
+    }
+}
@@ -0,0 +1,103 @@
+package com.almostreliable.kubeio.enderio;
+
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.server.level.ServerLevel;
+
+/**
+ * Caches the redstone signals around the conduits of a graph whose extract connections are controlled by redstone.
+ * <p>
+ * The signal of the neighbors is only read again after a block update at one of the neighbors. Colored redstone
+ * channels don't cause block updates, so the gates are also checked again after a short while.
+ */
+final class EnergyRedstoneCache implements BlockUpdateTracker.Listener {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final int COLORED_SIGNAL_TTL = 10;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte NO_SIGNAL = 1;
+    private static final byte SIGNAL = 2;
+
+    private final ServerLevel level;
+    private final Long2ByteOpenHashMap neighborSignals = new Long2ByteOpenHashMap();
+    private final LongOpenHashSet watched = new LongOpenHashSet();
+    private boolean changed = true;
+    private long nextCheck;
+
+    EnergyRedstoneCache(ServerLevel level) {
+        this.level = level;
+        neighborSignals.defaultReturnValue(UNKNOWN);
+    }
+
+    /**
+     * Starts or stops watching the neighbors of a conduit, depending on whether it has redstone controlled
+     * connections. Does nothing if the conduit is already in that state.
+     */
+    void update(long pos, boolean watch) {
+        if (watch ? !watched.add(pos) : !watched.remove(pos)) return;
+        setWatched(pos, watch);
+        changed = true;
+    }
+
+    private void setWatched(long pos, boolean watch) {
+        for (Direction direction : DIRECTIONS) {
+            long neighbor = BlockPos.offset(pos, direction);
+            if (watch) {
+                BlockUpdateTracker.listen(level, neighbor, this);
+            } else {
+                BlockUpdateTracker.forget(level, neighbor, this);
+            }
+        }
+        neighborSignals.remove(pos);
+    }
+
+    /**
+     * @return whether the gates have to be checked again since the last {@link #onChecked(long)}
+     */
+    boolean needsCheck(long gameTime) {
+        return changed || gameTime >= nextCheck;
+    }
+
+    void onChecked(long gameTime) {
+        changed = false;
+        nextCheck = gameTime + COLORED_SIGNAL_TTL;
+    }
+
+    /**
+     * Checks whether any neighbor of the conduit at the given position emits a signal towards it.
+     */
+    boolean hasNeighborSignal(long pos) {
+        byte signal = neighborSignals.get(pos);
+        if (signal != UNKNOWN) return signal == SIGNAL;
+
+        boolean hasSignal = false;
+        BlockPos conduitPos = BlockPos.of(pos);
+        for (Direction direction : DIRECTIONS) {
+            if (level.getSignal(conduitPos.relative(direction), direction.getOpposite()) > 0) {
+                hasSignal = true;
+                break;
+            }
+        }
+        neighborSignals.put(pos, hasSignal ? SIGNAL : NO_SIGNAL);
+        return hasSignal;
+    }
+
+    @Override
+    public void onBlockUpdate(long pos) {
+        for (Direction direction : DIRECTIONS) {
+            neighborSignals.remove(BlockPos.offset(pos, direction));
+        }
+        changed = true;
+    }
+
+    void release() {
+        var iterator = watched.iterator();
+        while (iterator.hasNext()) {
+            setWatched(iterator.nextLong(), false);
+        }
+        watched.clear();
+    }
+}
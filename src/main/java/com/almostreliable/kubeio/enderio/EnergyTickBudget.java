@@ -0,0 +1,76 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.google.common.base.Preconditions;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits the time the custom energy conduit graphs of a level may take per tick.
+ * <p>
+ * Once the budget of a level is used up, the remaining graphs wait for a later tick. Graphs that already waited too
+ * often are started anyway, so every graph gets its turn no matter in which order the conduits tick them. A single
+ * graph is never interrupted, so a graph can exceed the budget on its own.
+ * <p>
+ * Only accessed from the server thread.
+ */
+public final class EnergyTickBudget {
+
+    private static final long DEFAULT_BUDGET_NANOS = 2_000_000;
+    private static final Map<ResourceKey<Level>, LevelBudget> BUDGETS = new HashMap<>();
+    private static long budgetNanos = DEFAULT_BUDGET_NANOS;
+
+    private EnergyTickBudget() {}
+
+    /**
+     * @param milliseconds the time the graphs of a level may take per tick, 0 to disable the limit
+     */
+    public static void setBudget(double milliseconds) {
+        Preconditions.checkArgument(milliseconds >= 0, "budget must not be negative");
+        budgetNanos = (long) (milliseconds * 1_000_000);
+    }
+
+    /**
+     * Starts ticking a graph if the budget of the level isn't used up yet. Has to be followed by
+     * {@link #finish(ServerLevel)} if it returns true.
+     *
+     * @param force whether the graph starts even if the budget is used up, because it can't wait any longer
+     * @return whether the graph may tick now, otherwise it has to wait for a later tick
+     */
+    static boolean tryStart(ServerLevel level, boolean force) {
+        if (budgetNanos == 0) return true;
+
+        LevelBudget budget = BUDGETS.computeIfAbsent(level.dimension(), k -> new LevelBudget());
+        budget.startTick(level.getGameTime());
+        if (!force && budget.spentNanos >= budgetNanos) return false;
+        budget.start = System.nanoTime();
+        return true;
+    }
+
+    static void finish(ServerLevel level) {
+        if (budgetNanos == 0) return;
+
+        LevelBudget budget = BUDGETS.get(level.dimension());
+        if (budget != null) budget.spentNanos += System.nanoTime() - budget.start;
+    }
+
+    public static void onLevelUnload(Level level) {
+        BUDGETS.remove(level.dimension());
+    }
+
+    private static final class LevelBudget {
+
+        private long gameTime = -1;
+        private long spentNanos;
+        private long start;
+
+        private void startTick(long gameTime) {
+            if (this.gameTime == gameTime) return;
+            this.gameTime = gameTime;
+            spentNanos = 0;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.almostreliable.kubeio.enderio;
+
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+
+/**
+ * Remembers which chunks of a level tick blocks during the current tick.
+ * <p>
+ * Looking up a block entity in a chunk that isn't loaded loads it, so positions of connections are checked here
+ * before. Chunks that are loaded without ticking, e.g. at the border of a ticket, count as unloaded. Connections are
+ * usually checked in the order of their conduits, so the last chunk is remembered to skip the lookup for neighbors.
+ */
+final class LoadedChunkCache {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte UNLOADED = 1;
+    private static final byte LOADED = 2;
+
+    private final ServerLevel level;
+    private final Long2ByteOpenHashMap chunks = new Long2ByteOpenHashMap();
+    private long gameTime = -1;
+    private long lastChunk;
+    private boolean lastLoaded;
+
+    LoadedChunkCache(ServerLevel level) {
+        this.level = level;
+        chunks.defaultReturnValue(UNKNOWN);
+    }
+
+    /**
+     * Checks whether the chunk of the given packed block position ticks blocks.
+     */
+    boolean isLoaded(long pos) {
+        long chunk = ChunkPos.asLong(BlockPos.getX(pos) >> 4, BlockPos.getZ(pos) >> 4);
+        long time = level.getGameTime();
+        if (time != gameTime) {
+            gameTime = time;
+            chunks.clear();
+        } else if (chunk == lastChunk) {
+            return lastLoaded;
+        }
+
+        byte state = chunks.get(chunk);
+        if (state == UNKNOWN) {
+            state = level.shouldTickBlocksAt(chunk) ? LOADED : UNLOADED;
+            chunks.put(chunk, state);
+        }
+        lastChunk = chunk;
+        lastLoaded = state == LOADED;
+        return lastLoaded;
+    }
+}
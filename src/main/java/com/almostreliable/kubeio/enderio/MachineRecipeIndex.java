@@ -0,0 +1,266 @@
+package com.almostreliable.kubeio.enderio;
+
+import com.almostreliable.kubeio.mixin.AlloySmeltingRecipeAccessor;
+import com.enderio.core.common.recipes.CountedIngredient;
+import com.enderio.core.common.recipes.RecipeTypeSerializerPair;
+import com.enderio.machines.common.init.MachineRecipes;
+import com.enderio.machines.common.recipe.AlloySmeltingRecipe;
+import com.enderio.machines.common.recipe.TankRecipe;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.Container;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.crafting.Ingredient;
+import net.minecraft.world.item.crafting.Recipe;
+import net.minecraft.world.item.crafting.RecipeType;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.material.Fluid;
+import net.minecraftforge.fluids.FluidStack;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Looks up the recipes of the EnderIO machines by the items of their inputs instead of testing every recipe of a type.
+ * <p>
+ * Each recipe manager has its own index. The index of a type is built once on the first lookup after the recipes of
+ * the type were replaced, e.g. by a reload, so the tags are bound and the ingredients can be expanded into their
+ * items. Only plain vanilla ingredients are expanded, as other ingredients may test more than the items they list.
+ * Recipes with other ingredients or ingredients without items are tested for every lookup. Tank recipes are also
+ * indexed by their fluid, so only the recipes that fit the fluid in the tank are tested.
+ * <p>
+ * Candidates are tested in the order of the recipe manager, so the same recipe is found as without the index. The
+ * indexes are immutable and replaced as a whole, so lookups don't need to lock and don't allocate.
+ */
+public final class MachineRecipeIndex {
+
+    private static final List<RecipeTypeSerializerPair<?, ?>> MACHINE_RECIPES = List.of(
+        MachineRecipes.ALLOY_SMELTING,
+        MachineRecipes.ENCHANTING,
+        MachineRecipes.PAINTING,
+        MachineRecipes.SAG_MILLING,
+        MachineRecipes.SLICING,
+        MachineRecipes.SOUL_BINDING,
+        MachineRecipes.TANK
+    );
+    @Nullable private static Set<RecipeType<?>> indexedTypes;
+
+    // replaced by a copy when an index is built, concurrent builds at most build an index twice
+    private volatile Map<RecipeType<?>, TypeIndex> indexes = Map.of();
+
+    /**
+     * Checks whether recipes of the given type are looked up through the index.
+     */
+    public static boolean isIndexed(RecipeType<?> type) {
+        if (indexedTypes == null) {
+            // resolved on first use, as the types aren't registered when this class is loaded
+            Set<RecipeType<?>> types = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (RecipeTypeSerializerPair<?, ?> pair : MACHINE_RECIPES) {
+                types.add(pair.type().get());
+            }
+            indexedTypes = types;
+        }
+        return indexedTypes.contains(type);
+    }
+
+    /**
+     * Returns the first recipe of the given recipes that matches the container.
+     *
+     * @param recipes the recipes of the type, as held by the recipe manager
+     */
+    public <C extends Container, T extends Recipe<C>> Optional<T> getRecipeFor(
+        RecipeType<T> type, Map<ResourceLocation, T> recipes, C container, Level level
+    ) {
+        TypeIndex index = indexes.get(type);
+        if (index == null || index.source != recipes) index = buildIndex(type, recipes);
+
+        Postings postings = index.getPostings(container);
+        if (postings == null) return Optional.empty();
+
+        // merges the positions of all items in the container, each step tests the next smallest position
+        int last = -1;
+        while (true) {
+            int next = nextPosition(postings.unindexed, last);
+            for (int slot = 0; slot < container.getContainerSize(); slot++) {
+                ItemStack stack = container.getItem(slot);
+                if (stack.isEmpty()) continue;
+                int[] positions = postings.byItem.get(stack.getItem());
+                if (positions != null) next = Math.min(next, nextPosition(positions, last));
+            }
+            if (next == Integer.MAX_VALUE) return Optional.empty();
+
+            @SuppressWarnings("unchecked") T recipe = (T) index.recipes[next];
+            if (recipe.matches(container, level)) return Optional.of(recipe);
+            last = next;
+        }
+    }
+
+    private TypeIndex buildIndex(RecipeType<?> type, Map<ResourceLocation, ? extends Recipe<?>> recipes) {
+        TypeIndex index = new TypeIndex(recipes);
+        Map<RecipeType<?>, TypeIndex> copy = new IdentityHashMap<>(indexes);
+        copy.put(type, index);
+        indexes = Collections.unmodifiableMap(copy);
+        return index;
+    }
+
+    /**
+     * Returns the smallest of the ascending positions that is greater than the given one.
+     *
+     * @return {@link Integer#MAX_VALUE} if there is none
+     */
+    private static int nextPosition(int[] positions, int position) {
+        int low = 0;
+        int high = positions.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (positions[middle] <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low == positions.length ? Integer.MAX_VALUE : positions[low];
+    }
+
+    private static List<Ingredient> getInputs(Recipe<?> recipe) {
+        if (recipe instanceof AlloySmeltingRecipe alloySmeltingRecipe) {
+            var inputs = ((AlloySmeltingRecipeAccessor) alloySmeltingRecipe).getInputs();
+            List<Ingredient> ingredients = new ArrayList<>(inputs.size());
+            for (CountedIngredient input : inputs) {
+                ingredients.add(input.ingredient());
+            }
+            return ingredients;
+        }
+        if (recipe instanceof TankRecipe tankRecipe) return List.of(tankRecipe.getInput());
+        return recipe.getIngredients();
+    }
+
+    /**
+     * The recipes of a single type. Tank recipes are also split up by the fluid they need in the tank, unless the type
+     * holds recipes of other classes.
+     */
+    private static final class TypeIndex {
+
+        private final Map<ResourceLocation, ?> source;
+        private final Recipe<?>[] recipes;
+        private final Postings all;
+        // the tank recipes that can match with the fluid in the tank, or with an empty tank, null if not split up
+        @Nullable private final Map<Fluid, Postings> byFluid;
+        @Nullable private final Postings emptyTank;
+
+        private TypeIndex(Map<ResourceLocation, ? extends Recipe<?>> source) {
+            this.source = source;
+            this.recipes = source.values().toArray(Recipe<?>[]::new);
+
+            Postings.Builder allBuilder = new Postings.Builder();
+            Map<Fluid, Postings.Builder> fluidBuilders = new IdentityHashMap<>();
+            Postings.Builder emptyTankBuilder = new Postings.Builder();
+            boolean onlyTankRecipes = true;
+            for (int position = 0; position < recipes.length; position++) {
+                Recipe<?> recipe = recipes[position];
+                allBuilder.add(recipe, position);
+                if (!(recipe instanceof TankRecipe tankRecipe)) {
+                    onlyTankRecipes = false;
+                    continue;
+                }
+
+                FluidStack fluid = tankRecipe.getFluid();
+                fluidBuilders.computeIfAbsent(fluid.getFluid(), k -> new Postings.Builder()).add(recipe, position);
+                // emptying an item fills the tank, which also works if the tank is empty
+                if (tankRecipe.isEmptying()) emptyTankBuilder.add(recipe, position);
+            }
+
+            all = allBuilder.build();
+            if (onlyTankRecipes && !fluidBuilders.isEmpty()) {
+                byFluid = new IdentityHashMap<>();
+                for (var entry : fluidBuilders.entrySet()) {
+                    byFluid.put(entry.getKey(), entry.getValue().build());
+                }
+                emptyTank = emptyTankBuilder.build();
+            } else {
+                byFluid = null;
+                emptyTank = null;
+            }
+        }
+
+        /**
+         * @return the recipes that may match the container, or null if none can
+         */
+        @Nullable
+        private Postings getPostings(Container container) {
+            if (byFluid == null || !(container instanceof TankRecipe.Container tankContainer)) return all;
+            FluidStack fluid = tankContainer.getFluidTank().getFluid();
+            return fluid.isEmpty() ? emptyTank : byFluid.get(fluid.getFluid());
+        }
+    }
+
+    /**
+     * The positions of recipes by the items of their inputs.
+     */
+    private static final class Postings {
+
+        // the positions of the recipes per item, ascending
+        private final Map<Item, int[]> byItem;
+        // the positions of the recipes that can't be indexed, ascending
+        private final int[] unindexed;
+
+        private Postings(Map<Item, int[]> byItem, int[] unindexed) {
+            this.byItem = byItem;
+            this.unindexed = unindexed;
+        }
+
+        private static final class Builder {
+
+            private final Map<Item, IntArrayList> positions = new HashMap<>();
+            private final IntArrayList unindexed = new IntArrayList();
+
+            /**
+             * Adds the position of the recipe to all items of its inputs, or to the unindexed recipes if any input
+             * isn't a plain ingredient listing its items.
+             */
+            private void add(Recipe<?> recipe, int position) {
+                List<Ingredient> inputs = getInputs(recipe);
+                if (inputs.isEmpty()) {
+                    unindexed.add(position);
+                    return;
+                }
+                for (Ingredient input : inputs) {
+                    // subclasses, e.g. ingredients that check the NBT, may match differently than their items
+                    if (input.getClass() != Ingredient.class || input.getItems().length == 0) {
+                        unindexed.add(position);
+                        return;
+                    }
+                }
+
+                for (Ingredient input : inputs) {
+                    for (ItemStack stack : input.getItems()) {
+                        IntArrayList itemPositions = positions.computeIfAbsent(
+                            stack.getItem(),
+                            k -> new IntArrayList()
+                        );
+                        // an item may be listed more than once
+                        if (itemPositions.isEmpty() || itemPositions.getInt(itemPositions.size() - 1) != position) {
+                            itemPositions.add(position);
+                        }
+                    }
+                }
+            }
+
+            private Postings build() {
+                Map<Item, int[]> byItem = new IdentityHashMap<>();
+                for (var entry : positions.entrySet()) {
+                    byItem.put(entry.getKey(), entry.getValue().toIntArray());
+                }
+                return new Postings(byItem, unindexed.toIntArray());
+            }
+        }
+    }
+}
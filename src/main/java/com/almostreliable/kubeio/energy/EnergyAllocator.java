@@ -0,0 +1,33 @@
+package com.almostreliable.kubeio.energy;
+
+/**
+ * Splits an amount of energy between endpoints with known capacities.
+ * <p>
+ * Implementations keep their buffers between uses and are not thread-safe.
+ */
+public interface EnergyAllocator {
+
+    /**
+     * Removes all endpoints.
+     */
+    void reset();
+
+    /**
+     * Adds an endpoint that can transfer up to the given capacity through the given amount of connections.
+     *
+     * @return the index of the endpoint
+     */
+    int add(int capacity, int connections);
+
+    int size();
+
+    int getCapacity(int endpoint);
+
+    long getTotalCapacity();
+
+    /**
+     * Distributes the given amount between all endpoints and writes the share of each endpoint into the result
+     * array, indexed like the endpoints were added.
+     */
+    void allocate(long amount, int[] result);
+}
@@ -0,0 +1,61 @@
+package com.almostreliable.kubeio.energy;
+
+import java.util.Locale;
+
+/**
+ * Decides which endpoints get the energy if not all of them can be served.
+ */
+public enum EnergyDistributionStrategy {
+    /**
+     * Splits the energy evenly, endpoints that take less than their share leave the rest to the others.
+     */
+    FAIR(false, false) {
+        @Override
+        public EnergyAllocator createAllocator() {
+            return new FairEnergyAllocator();
+        }
+    },
+    /**
+     * Fills the endpoints one after another and continues with the next endpoint in the following tick, also if the
+     * network changed in between.
+     */
+    ROUND_ROBIN(true, true) {
+        @Override
+        public EnergyAllocator createAllocator() {
+            return new SequentialEnergyAllocator();
+        }
+    },
+    /**
+     * Fills the endpoints in the order they were added, which the network uses to put the nearest endpoints first.
+     */
+    NEAREST_FIRST(true, false) {
+        @Override
+        public EnergyAllocator createAllocator() {
+            return new SequentialEnergyAllocator();
+        }
+    };
+
+    // whether the endpoints are filled one after another, so only the ones that get energy have to be simulated
+    final boolean sequential;
+    // whether the endpoints are filled starting after the last one served in the previous tick
+    final boolean rotating;
+
+    EnergyDistributionStrategy(boolean sequential, boolean rotating) {
+        this.sequential = sequential;
+        this.rotating = rotating;
+    }
+
+    public abstract EnergyAllocator createAllocator();
+
+    /**
+     * Returns the strategy with the given name, case-insensitive, e.g. {@code round_robin}.
+     *
+     * @throws IllegalArgumentException if there is no strategy with the given name
+     */
+    public static EnergyDistributionStrategy byName(String name) {
+        for (EnergyDistributionStrategy strategy : values()) {
+            if (strategy.name().equals(name.toUpperCase(Locale.ROOT))) return strategy;
+        }
+        throw new IllegalArgumentException("unknown distribution strategy: " + name);
+    }
+}
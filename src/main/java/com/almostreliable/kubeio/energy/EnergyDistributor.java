@@ -0,0 +1,653 @@
+package com.almostreliable.kubeio.energy;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Distributes energy between the blocks of a network in a single tick.
+ * <p>
+ * Blocks are added with the endpoints they insert into and extract from, together with the amount of connections
+ * to them. A tick then runs in two steps:
+ * <ol>
+ *     <li>{@link #distribute()} simulates the endpoints and decides how much energy each side transfers</li>
+ *     <li>{@link #plan(boolean)} splits the amounts between the endpoints, optional as the commit does it too</li>
+ *     <li>{@link #commit()} transfers the energy</li>
+ * </ol>
+ * Planning only works on the capacities simulated by {@link #distribute()}, so the sides of a large network can be
+ * planned on the common fork-join pool while the endpoints are only called from the thread that commits.
+ * If the blocks accept more than is provided, the providers are drained and the energy is split between the blocks
+ * accepting it by the {@link EnergyDistributionStrategy}, and the other way around. Blocks that insert and extract
+ * only fill up the difference.
+ * <p>
+ * Strategies that fill the endpoints one after another only simulate the endpoints in the order they are served until
+ * both sides are matched, so the endpoints that wouldn't get anything aren't asked.
+ * <p>
+ * With a buffer, the energy doesn't have to be paired within a tick. The extracts fill the buffer and the inserts
+ * drain it, energy passes through directly if both sides are active.
+ * <p>
+ * The blocks are kept until {@link #clear()}, so a network with a stable layout only repeats these steps. A rotating
+ * strategy remembers the endpoint it continues with across {@link #clear()}, so it keeps its place when the blocks
+ * are added again. Instances keep their buffers between ticks and are not thread-safe.
+ */
+public final class EnergyDistributor {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long transferRate;
+    private final boolean unbounded;
+    private final EnergyDistributionStrategy strategy;
+
+    // connections grouped by block, indexed by block
+    private int blockCount;
+    private int simulations;
+    private EnergyEndpoint[] insertEndpoints = new EnergyEndpoint[INITIAL_CAPACITY];
+    private EnergyEndpoint[] extractEndpoints = new EnergyEndpoint[INITIAL_CAPACITY];
+    private int[] insertCounts = new int[INITIAL_CAPACITY];
+    private int[] extractCounts = new int[INITIAL_CAPACITY];
+
+    // blocks partitioned by the kind of connections they have
+    private final BlockList inserts = new BlockList();
+    private final BlockList extracts = new BlockList();
+    private final BlockList insertAndExtracts = new BlockList();
+    private boolean partitioned;
+
+    private boolean buffered;
+    private boolean bufferActive;
+    private long bufferedEnergy;
+    private long bufferCapacity;
+
+    private final Transfers insertTransfers;
+    private final Transfers extractTransfers;
+    private final Transfers extraTransfers;
+
+    /**
+     * @param transferRate the maximum amount of energy per connection and tick
+     */
+    public EnergyDistributor(long transferRate) {
+        this(transferRate, EnergyDistributionStrategy.FAIR);
+    }
+
+    /**
+     * @param transferRate the maximum amount of energy per connection and tick
+     * @param strategy     the strategy deciding which endpoints are served if not all of them can be
+     */
+    public EnergyDistributor(long transferRate, EnergyDistributionStrategy strategy) {
+        this(transferRate, false, strategy);
+    }
+
+    private EnergyDistributor(long transferRate, boolean unbounded, EnergyDistributionStrategy strategy) {
+        this.transferRate = transferRate;
+        this.unbounded = unbounded;
+        this.strategy = strategy;
+        insertTransfers = new Transfers(strategy.createAllocator());
+        extractTransfers = new Transfers(strategy.createAllocator());
+        extraTransfers = new Transfers(strategy.createAllocator());
+    }
+
+    /**
+     * Creates a distributor without a transfer rate, the endpoints are the only limit.
+     */
+    public static EnergyDistributor unbounded() {
+        return unbounded(EnergyDistributionStrategy.FAIR);
+    }
+
+    public static EnergyDistributor unbounded(EnergyDistributionStrategy strategy) {
+        return new EnergyDistributor(Integer.MAX_VALUE, true, strategy);
+    }
+
+    /**
+     * Changes the transfer rate for the next {@link #distribute()}. Has no effect on unbounded distributors.
+     *
+     * @param transferRate the maximum amount of energy per connection and tick
+     */
+    public void setTransferRate(long transferRate) {
+        if (!unbounded) this.transferRate = transferRate;
+    }
+
+    /**
+     * Lets the distributor buffer energy in the next tick. Has to be set again before every {@link #distribute()}.
+     *
+     * @param energy   the energy in the buffer
+     * @param capacity the amount of energy the buffer can hold
+     */
+    public void setBuffer(long energy, long capacity) {
+        buffered = true;
+        bufferedEnergy = energy;
+        bufferCapacity = capacity;
+    }
+
+    /**
+     * @return the energy in the buffer after {@link #commit()}
+     */
+    public long getBufferedEnergy() {
+        return bufferedEnergy;
+    }
+
+    /**
+     * Adds a new block without connections.
+     *
+     * @return the index of the block
+     */
+    public int addBlock() {
+        if (blockCount == insertEndpoints.length) {
+            int capacity = blockCount * 2;
+            insertEndpoints = Arrays.copyOf(insertEndpoints, capacity);
+            extractEndpoints = Arrays.copyOf(extractEndpoints, capacity);
+            insertCounts = Arrays.copyOf(insertCounts, capacity);
+            extractCounts = Arrays.copyOf(extractCounts, capacity);
+        }
+
+        partitioned = false;
+        int block = blockCount++;
+        insertEndpoints[block] = null;
+        extractEndpoints[block] = null;
+        insertCounts[block] = 0;
+        extractCounts[block] = 0;
+        return block;
+    }
+
+    /**
+     * Adds a connection inserting into the given block. A block connected from multiple sides only uses the endpoint
+     * of the first connection, as all energy has to fit into the block from all connected sides.
+     */
+    public void addInsert(int block, EnergyEndpoint endpoint) {
+        if (insertEndpoints[block] == null) insertEndpoints[block] = endpoint;
+        insertCounts[block]++;
+        partitioned = false;
+    }
+
+    /**
+     * Adds a connection extracting from the given block. Behaves like {@link #addInsert(int, EnergyEndpoint)}.
+     */
+    public void addExtract(int block, EnergyEndpoint endpoint) {
+        if (extractEndpoints[block] == null) extractEndpoints[block] = endpoint;
+        extractCounts[block]++;
+        partitioned = false;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return the amount of simulated transfers of the last {@link #distribute()}
+     */
+    public int getSimulationCount() {
+        return simulations;
+    }
+
+    /**
+     * @return the amount of endpoints taking part in the transfers decided by {@link #distribute()}
+     */
+    public int getTransferCount() {
+        return insertTransfers.size() + extractTransfers.size() + extraTransfers.size();
+    }
+
+    /**
+     * Simulates the endpoints of all blocks and decides how much energy each side transfers.
+     *
+     * @return the amount of energy that will be transferred
+     */
+    public long distribute() {
+        simulations = 0;
+        insertTransfers.clear();
+        extractTransfers.clear();
+        extraTransfers.clear();
+        if (!partitioned) partitionBlocks();
+        bufferActive = buffered;
+        buffered = false;
+        if (strategy.sequential) return distributeSequential();
+        if (bufferActive) return distributeBuffered();
+
+        int insertCount = inserts.size;
+        int extractCount = extracts.size;
+        int insertAndExtractCount = insertAndExtracts.size;
+
+        // If this is true, no energy transfer is necessary
+        if ((insertCount == 0 && extractCount == 0) ||
+            (insertCount == 0 && insertAndExtractCount == 0) ||
+            (extractCount == 0 && insertAndExtractCount == 0)) {
+            return 0;
+        }
+
+        simulateTransfers(insertTransfers, inserts, true);
+        simulateTransfers(extractTransfers, extracts, false);
+
+        if (insertTransfers.maxTransferAmount() < extractTransfers.maxTransferAmount()) {
+            return handleExcessPower();
+        }
+        if (insertTransfers.maxTransferAmount() > extractTransfers.maxTransferAmount()) {
+            return handlePowerDeficit();
+        }
+        insertTransfers.planAll();
+        extractTransfers.planAll();
+        return insertTransfers.maxTransferAmount();
+    }
+
+    /**
+     * Splits the amounts decided by the last {@link #distribute()} between the endpoints of each side. Doesn't call
+     * the endpoints, the capacities they simulated are used.
+     *
+     * @param parallel whether the inserting side is split on the common fork-join pool while the calling thread splits
+     *                 the others, only worth it for many endpoints
+     */
+    public void plan(boolean parallel) {
+        if (!parallel) {
+            insertTransfers.allocatePlanned();
+            extractTransfers.allocatePlanned();
+            extraTransfers.allocatePlanned();
+            return;
+        }
+
+        ForkJoinTask<?> insertTask = ForkJoinTask.adapt(insertTransfers::allocatePlanned).fork();
+        extractTransfers.allocatePlanned();
+        extraTransfers.allocatePlanned();
+        insertTask.join();
+    }
+
+    /**
+     * Transfers the amounts decided by the last {@link #distribute()}, which has to be called right before, using the
+     * split of {@link #plan(boolean)} if it still fits.
+     * <p>
+     * Inserts first and only extracts what was inserted, or what the buffer can take on top of it. An endpoint
+     * accepting less than simulated only lowers the extracted energy, no energy is lost.
+     *
+     * @return the amount of energy inserted
+     */
+    public long commit() {
+        long supply = extractTransfers.planned + (extraTransfers.insert ? 0 : extraTransfers.planned);
+        long available = bufferActive ? bufferedEnergy + supply : supply;
+        long inserted = insertTransfers.commit(available);
+        if (extraTransfers.insert) inserted += extraTransfers.commit(available - inserted);
+
+        long demand = bufferActive ? Math.min(supply, bufferCapacity - bufferedEnergy + inserted) : inserted;
+        long extracted = extractTransfers.commit(demand);
+        if (!extraTransfers.insert) extracted += extraTransfers.commit(demand - extracted);
+        if (strategy.rotating) {
+            insertTransfers.advanceCursor();
+            extractTransfers.advanceCursor();
+            extraTransfers.advanceCursor();
+        }
+        if (bufferActive) {
+            // the buffer may hold more than its capacity after buffers were merged, but must not grow beyond it
+            long energy = bufferedEnergy + extracted - inserted;
+            bufferedEnergy = Math.max(0, Math.min(energy, Math.max(bufferCapacity, bufferedEnergy)));
+        }
+        return inserted;
+    }
+
+    /**
+     * Drops all blocks and endpoint references, except the endpoints a rotating strategy continues with.
+     */
+    public void clear() {
+        Arrays.fill(insertEndpoints, 0, blockCount, null);
+        Arrays.fill(extractEndpoints, 0, blockCount, null);
+        blockCount = 0;
+        simulations = 0;
+        inserts.size = 0;
+        extracts.size = 0;
+        insertAndExtracts.size = 0;
+        partitioned = false;
+        insertTransfers.clear();
+        extractTransfers.clear();
+        extraTransfers.clear();
+    }
+
+    /**
+     * Decides the transfers with a buffer between the sides. The inserts take what the buffer holds and the extracts
+     * provide, the extracts fill what the buffer can take and the inserts drain. Blocks that insert and extract cover
+     * what's left on either side.
+     */
+    private long distributeBuffered() {
+        simulateTransfers(insertTransfers, inserts, true);
+        simulateTransfers(extractTransfers, extracts, false);
+        long insertAmount = insertTransfers.maxTransferAmount();
+        long extractAmount = extractTransfers.maxTransferAmount();
+
+        long insert = Math.min(insertAmount, bufferedEnergy + extractAmount);
+        // the buffer may hold more than its capacity after buffers were merged
+        long extract = Math.max(0, Math.min(extractAmount, bufferCapacity - bufferedEnergy + insert));
+        long extra = 0;
+        if (insert < insertAmount && insertAndExtracts.size > 0) {
+            simulateTransfers(extraTransfers, insertAndExtracts, false);
+            extra = Math.min(extraTransfers.maxTransferAmount(), insertAmount - insert);
+            insert += extra;
+        } else if (extract < extractAmount && insertAndExtracts.size > 0) {
+            simulateTransfers(extraTransfers, insertAndExtracts, true);
+            extra = Math.min(extraTransfers.maxTransferAmount(), extractAmount - extract);
+            extract += extra;
+        }
+
+        insertTransfers.plan(insert);
+        extractTransfers.plan(extract);
+        extraTransfers.plan(extra);
+        return Math.max(insert, extract);
+    }
+
+    /**
+     * Decides the transfers of a sequential strategy, with or without a buffer, like the other distributions but only
+     * simulating the endpoints that are needed. The side that is behind simulates its next endpoint until one side
+     * runs out and the other one covers it. Blocks that insert and extract join the side that runs out first, if the
+     * other side still has more to transfer.
+     */
+    private long distributeSequential() {
+        long bufferEnergy = bufferActive ? bufferedEnergy : 0;
+        // the buffer may hold more than its capacity after buffers were merged
+        long bufferRoom = bufferActive ? bufferCapacity - bufferedEnergy : 0;
+        startTransfers(insertTransfers, inserts, true);
+        startTransfers(extractTransfers, extracts, false);
+        startTransfers(extraTransfers, insertAndExtracts, false);
+        boolean extrasJoined = false;
+
+        while (true) {
+            boolean extraInserts = extrasJoined && extraTransfers.insert;
+            boolean extraExtracts = extrasJoined && !extraTransfers.insert;
+            long demand = insertTransfers.maxTransferAmount();
+            long supply = extractTransfers.maxTransferAmount();
+            long extraDemand = extraInserts ? extraTransfers.maxTransferAmount() : 0;
+            long extraSupply = extraExtracts ? extraTransfers.maxTransferAmount() : 0;
+            boolean demandLeft = insertTransfers.hasNext() || !extraExtracts && extraTransfers.hasNext();
+            boolean supplyLeft = extractTransfers.hasNext() || !extraInserts && extraTransfers.hasNext();
+
+            // on a tie, more is only needed if the other side can still grow
+            long insertGap = supply + extraSupply + bufferEnergy - demand;
+            if (insertTransfers.hasNext() && (insertGap > 0 || insertGap == 0 && supplyLeft)) {
+                simulateNext(insertTransfers);
+                continue;
+            }
+            // what the extracts can still hand out: everything while the inserts want more than there is, otherwise
+            // what the inserts and the room in the buffer take
+            long extractGap = demand > supply + bufferEnergy ?
+                Long.MAX_VALUE :
+                Math.max(0, demand + bufferRoom) + extraDemand - supply;
+            if (extractTransfers.hasNext() && (extractGap > 0 || extractGap == 0 && demandLeft)) {
+                simulateNext(extractTransfers);
+                continue;
+            }
+            if (!extraTransfers.hasNext()) break;
+
+            // the extras only cover what one side can't transfer at all, not what the buffer could take or give
+            if (!extraExtracts && !insertTransfers.hasNext() && extractGap < 0) {
+                extraTransfers.insert = true;
+            } else if (!extraInserts && !extractTransfers.hasNext() && insertGap < 0) {
+                extraTransfers.insert = false;
+            } else {
+                break;
+            }
+            extrasJoined = true;
+            simulateNext(extraTransfers);
+        }
+
+        long demand = insertTransfers.maxTransferAmount();
+        long supply = extractTransfers.maxTransferAmount();
+        long insert = Math.min(demand, bufferEnergy + supply);
+        long extract = Math.max(0, Math.min(supply, bufferRoom + insert));
+        long extra = 0;
+        if (extrasJoined && extraTransfers.insert) {
+            extra = Math.min(extraTransfers.maxTransferAmount(), supply - extract);
+            extract += extra;
+        } else if (extrasJoined) {
+            extra = Math.min(extraTransfers.maxTransferAmount(), demand - insert);
+            insert += extra;
+        }
+
+        insertTransfers.plan(insert);
+        extractTransfers.plan(extract);
+        extraTransfers.plan(extra);
+        return Math.max(insert, extract);
+    }
+
+    private long handleExcessPower() {
+        long excessPower = extractTransfers.maxTransferAmount() - insertTransfers.maxTransferAmount();
+        var extraInserts = simulateTransfers(extraTransfers, insertAndExtracts, true);
+        insertTransfers.planAll();
+        if (excessPower > extraInserts.maxTransferAmount()) {
+            extraInserts.planAll();
+
+            long leftToExtract = insertTransfers.maxTransferAmount() + extraInserts.maxTransferAmount();
+            extractTransfers.plan(leftToExtract);
+            return leftToExtract;
+        }
+
+        extractTransfers.planAll();
+        extraInserts.plan(excessPower);
+        return extractTransfers.maxTransferAmount();
+    }
+
+    private long handlePowerDeficit() {
+        long powerDeficit = insertTransfers.maxTransferAmount() - extractTransfers.maxTransferAmount();
+        var extraExtracts = simulateTransfers(extraTransfers, insertAndExtracts, false);
+        extractTransfers.planAll();
+        if (powerDeficit > extraExtracts.maxTransferAmount()) {
+            extraExtracts.planAll();
+
+            long leftToInsert = extractTransfers.maxTransferAmount() + extraExtracts.maxTransferAmount();
+            insertTransfers.plan(leftToInsert);
+            return leftToInsert;
+        }
+
+        insertTransfers.planAll();
+        extraExtracts.plan(powerDeficit);
+        return insertTransfers.maxTransferAmount();
+    }
+
+    private void partitionBlocks() {
+        inserts.size = 0;
+        extracts.size = 0;
+        insertAndExtracts.size = 0;
+        for (int block = 0; block < blockCount; block++) {
+            if (insertEndpoints[block] == null) {
+                if (extractEndpoints[block] != null) extracts.add(block);
+            } else if (extractEndpoints[block] == null) {
+                inserts.add(block);
+            } else {
+                insertAndExtracts.add(block);
+            }
+        }
+        partitioned = true;
+        if (strategy.rotating) {
+            inserts.findCursor();
+            extracts.findCursor();
+            insertAndExtracts.findCursor();
+        }
+    }
+
+    private Transfers simulateTransfers(Transfers transfers, BlockList blocks, boolean insert) {
+        startTransfers(transfers, blocks, insert);
+        while (transfers.hasNext()) {
+            simulateNext(transfers);
+        }
+        return transfers;
+    }
+
+    private void startTransfers(Transfers transfers, BlockList blocks, boolean insert) {
+        transfers.clear();
+        transfers.blocks = blocks;
+        transfers.insert = insert;
+    }
+
+    /**
+     * Simulates the next block of the given transfers, in the order of their block list starting at its cursor.
+     */
+    private void simulateNext(Transfers transfers) {
+        BlockList blocks = transfers.blocks;
+        int position = (blocks.cursor + transfers.visited++) % blocks.size;
+        int block = blocks.blocks[position];
+        EnergyEndpoint endpoint = transfers.insert ? insertEndpoints[block] : extractEndpoints[block];
+        int count = transfers.insert ? insertCounts[block] : extractCounts[block];
+        simulations++;
+        int transferAmount = transfers.insert ?
+            endpoint.receiveEnergy(getRequest(count), true) :
+            endpoint.extractEnergy(getRequest(count), true);
+        if (transferAmount == 0) return;
+        // without a rate per connection, the connections don't need to be split either
+        transfers.add(endpoint, transferAmount, unbounded ? 1 : count, position);
+    }
+
+    /**
+     * Returns the amount a block with the given amount of connections may transfer, clamped to what an endpoint can
+     * handle.
+     */
+    private int getRequest(int connections) {
+        if (unbounded) return Integer.MAX_VALUE;
+        return (int) Math.min(transferRate * connections, Integer.MAX_VALUE);
+    }
+
+    private final class BlockList {
+
+        private int[] blocks = new int[INITIAL_CAPACITY];
+        private int size;
+        // the position the transfers start at, and the endpoint at it to find it again after the blocks changed
+        private int cursor;
+        private EnergyEndpoint cursorEndpoint;
+
+        private void add(int block) {
+            if (size == blocks.length) blocks = Arrays.copyOf(blocks, size * 2);
+            blocks[size++] = block;
+        }
+
+        private EnergyEndpoint getEndpoint(int position) {
+            int block = blocks[position];
+            return insertEndpoints[block] == null ? extractEndpoints[block] : insertEndpoints[block];
+        }
+
+        /**
+         * Moves the cursor to the position after the given one.
+         */
+        private void moveCursor(int position) {
+            cursor = (position + 1) % size;
+            cursorEndpoint = getEndpoint(cursor);
+        }
+
+        /**
+         * Moves the cursor back to its endpoint after the blocks were partitioned again. If the endpoint is gone, the
+         * cursor keeps its position.
+         */
+        private void findCursor() {
+            if (size == 0) {
+                cursor = 0;
+                return;
+            }
+            for (int position = 0; position < size; position++) {
+                if (getEndpoint(position) == cursorEndpoint) {
+                    cursor = position;
+                    return;
+                }
+            }
+            cursor %= size;
+        }
+    }
+
+    /**
+     * The endpoints taking part in one side of a transfer, with their simulated capacities held by an allocator.
+     */
+    private static final class Transfers {
+
+        private final EnergyAllocator allocator;
+        private EnergyEndpoint[] endpoints = new EnergyEndpoint[INITIAL_CAPACITY];
+        private int[] amounts = new int[INITIAL_CAPACITY];
+        // the position of each endpoint in the block list
+        private int[] positions = new int[INITIAL_CAPACITY];
+        // the blocks the endpoints are simulated from, null until the transfers are started
+        private BlockList blocks;
+        private int visited;
+        private boolean insert;
+        private long planned;
+        // the amount the endpoints' shares were allocated for, -1 if they weren't
+        private long allocated = -1;
+        private int lastServed = -1;
+
+        private Transfers(EnergyAllocator allocator) {
+            this.allocator = allocator;
+        }
+
+        private void add(EnergyEndpoint endpoint, int capacity, int connections, int position) {
+            int index = allocator.add(capacity, connections);
+            if (index == endpoints.length) {
+                endpoints = Arrays.copyOf(endpoints, index * 2);
+                amounts = Arrays.copyOf(amounts, index * 2);
+                positions = Arrays.copyOf(positions, index * 2);
+            }
+            endpoints[index] = endpoint;
+            positions[index] = position;
+        }
+
+        private boolean hasNext() {
+            return blocks != null && visited < blocks.size;
+        }
+
+        private int size() {
+            return allocator.size();
+        }
+
+        private long maxTransferAmount() {
+            return allocator.getTotalCapacity();
+        }
+
+        private void plan(long amount) {
+            planned = amount;
+        }
+
+        private void planAll() {
+            planned = allocator.getTotalCapacity();
+        }
+
+        private void allocatePlanned() {
+            allocate(planned);
+        }
+
+        private void allocate(long amount) {
+            allocator.allocate(amount, amounts);
+            allocated = amount;
+        }
+
+        /**
+         * Allocates the planned amount, or less if limited, and transfers it. If endpoints transfer less than they
+         * simulated, the others are asked for what's left of their capacity.
+         *
+         * @return the amount of energy transferred
+         */
+        private long commit(long limit) {
+            long amount = Math.min(planned, limit);
+            if (amount <= 0) return 0;
+            // the other side may have transferred less than simulated, then the planned split doesn't fit
+            if (allocated != amount) allocate(amount);
+
+            int size = allocator.size();
+            long transferred = 0;
+            for (int i = 0; i < size; i++) {
+                if (amounts[i] > 0) transferred += transfer(i, amounts[i]);
+            }
+            for (int i = 0; i < size && transferred < amount; i++) {
+                int spare = allocator.getCapacity(i) - amounts[i];
+                if (spare > 0) transferred += transfer(i, (int) Math.min(spare, amount - transferred));
+            }
+            return transferred;
+        }
+
+        private int transfer(int endpoint, int amount) {
+            int transferred = insert ?
+                endpoints[endpoint].receiveEnergy(amount, false) :
+                endpoints[endpoint].extractEnergy(amount, false);
+            if (transferred > 0) lastServed = Math.max(lastServed, endpoint);
+            return transferred;
+        }
+
+        /**
+         * Lets the next transfers of the block list start after the last endpoint that was served.
+         */
+        private void advanceCursor() {
+            if (blocks != null && lastServed >= 0) blocks.moveCursor(positions[lastServed]);
+        }
+
+        private void clear() {
+            Arrays.fill(endpoints, 0, allocator.size(), null);
+            allocator.reset();
+            blocks = null;
+            visited = 0;
+            planned = 0;
+            allocated = -1;
+            lastServed = -1;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.almostreliable.kubeio.energy;
+
+/**
+ * A handle to something energy can be transferred from or to, usually the energy storage of a block.
+ * <p>
+ * The methods follow the contract of Forge's {@code IEnergyStorage}.
+ */
+public interface EnergyEndpoint {
+
+    /**
+     * @return the amount of energy that was or would have been accepted
+     */
+    int receiveEnergy(int maxReceive, boolean simulate);
+
+    /**
+     * @return the amount of energy that was or would have been extracted
+     */
+    int extractEnergy(int maxExtract, boolean simulate);
+}
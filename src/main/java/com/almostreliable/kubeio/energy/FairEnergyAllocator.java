@@ -0,0 +1,184 @@
+package com.almostreliable.kubeio.energy;
+
+import java.util.Arrays;
+
+/**
+ * Distributes an amount of energy fairly between endpoints, smallest request first.
+ * <p>
+ * Each endpoint is split into one part per connection: {@code ceil(capacity / connections)} sized parts and a smaller
+ * remainder. The parts are offered {@code ceil(left / partsLeft)} in ascending order, and every part draws from the
+ * capacity of its endpoint. Parts of equal size of the same endpoint are kept as a single group, so an endpoint never
+ * has more than two groups, no matter how many connections it has. The groups are ordered with a stable radix sort
+ * and each group is settled in constant time, which makes an allocation linear in the number of endpoints.
+ * <p>
+ * Instances keep their buffers between uses and are not thread-safe.
+ */
+public final class FairEnergyAllocator implements EnergyAllocator {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
+    private int endpointCount;
+    private int[] capacities = new int[INITIAL_CAPACITY];
+    private int[] remaining = new int[INITIAL_CAPACITY];
+    private long totalCapacity;
+
+    private int groupCount;
+    private int partCount;
+    private int[] groupSizes = new int[INITIAL_CAPACITY];
+    private int[] groupWeights = new int[INITIAL_CAPACITY];
+    private int[] groupOwners = new int[INITIAL_CAPACITY];
+    private int[] order = new int[INITIAL_CAPACITY];
+    private int[] sortBuffer = new int[INITIAL_CAPACITY];
+    private final int[] buckets = new int[1 << RADIX_BITS];
+    private boolean sorted;
+
+    @Override
+    public void reset() {
+        endpointCount = 0;
+        totalCapacity = 0;
+        groupCount = 0;
+        partCount = 0;
+        sorted = true;
+    }
+
+    @Override
+    public int add(int capacity, int connections) {
+        if (endpointCount == capacities.length) {
+            capacities = Arrays.copyOf(capacities, endpointCount * 2);
+            remaining = Arrays.copyOf(remaining, endpointCount * 2);
+        }
+        int endpoint = endpointCount++;
+        capacities[endpoint] = capacity;
+        if (capacity <= 0) return endpoint;
+
+        totalCapacity += capacity;
+        int part = (int) Math.ceil((double) capacity / connections);
+        addGroup(endpoint, part, capacity / part);
+        if (capacity % part != 0) addGroup(endpoint, capacity % part, 1);
+        sorted = false;
+        return endpoint;
+    }
+
+    @Override
+    public int size() {
+        return endpointCount;
+    }
+
+    @Override
+    public int getCapacity(int endpoint) {
+        return capacities[endpoint];
+    }
+
+    @Override
+    public long getTotalCapacity() {
+        return totalCapacity;
+    }
+
+    @Override
+    public void allocate(long amount, int[] result) {
+        if (amount >= totalCapacity) {
+            System.arraycopy(capacities, 0, result, 0, endpointCount);
+            return;
+        }
+        Arrays.fill(result, 0, endpointCount, 0);
+        if (amount <= 0) return;
+
+        sortGroups();
+        System.arraycopy(capacities, 0, remaining, 0, endpointCount);
+        long left = amount;
+        int partsLeft = partCount;
+        for (int i = 0; i < groupCount && left > 0; i++) {
+            int group = order[i];
+            int owner = groupOwners[group];
+            int weight = groupWeights[group];
+
+            // the parts are offered an even split of what's left where the first ones get the remainder
+            long share = left / partsLeft;
+            long offered = share * weight + Math.min(weight, left % partsLeft);
+            int taken = (int) Math.min(remaining[owner], offered);
+            result[owner] += taken;
+            remaining[owner] -= taken;
+            left -= taken;
+            partsLeft -= weight;
+        }
+    }
+
+    /**
+     * Orders the groups by their part size. Groups of equal size stay in insertion order.
+     */
+    private void sortGroups() {
+        if (sorted) return;
+        sorted = true;
+
+        for (int i = 0; i < groupCount; i++) {
+            order[i] = i;
+        }
+        if (groupCount < INSERTION_SORT_THRESHOLD) {
+            insertionSort();
+            return;
+        }
+
+        int differingBits = 0;
+        for (int i = 1; i < groupCount; i++) {
+            differingBits |= groupSizes[i] ^ groupSizes[0];
+        }
+        for (int shift = 0; shift < Integer.SIZE; shift += RADIX_BITS) {
+            // skip digits all sizes share
+            if ((differingBits >>> shift & RADIX_MASK) == 0) continue;
+            radixPass(shift);
+        }
+    }
+
+    private void insertionSort() {
+        for (int i = 1; i < groupCount; i++) {
+            int group = order[i];
+            int size = groupSizes[group];
+            int j = i - 1;
+            while (j >= 0 && groupSizes[order[j]] > size) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = group;
+        }
+    }
+
+    private void radixPass(int shift) {
+        Arrays.fill(buckets, 0);
+        for (int i = 0; i < groupCount; i++) {
+            buckets[groupSizes[order[i]] >>> shift & RADIX_MASK]++;
+        }
+        int start = 0;
+        for (int bucket = 0; bucket < buckets.length; bucket++) {
+            int count = buckets[bucket];
+            buckets[bucket] = start;
+            start += count;
+        }
+        for (int i = 0; i < groupCount; i++) {
+            int group = order[i];
+            sortBuffer[buckets[groupSizes[group] >>> shift & RADIX_MASK]++] = group;
+        }
+
+        int[] tmp = order;
+        order = sortBuffer;
+        sortBuffer = tmp;
+    }
+
+    private void addGroup(int endpoint, int partSize, int parts) {
+        if (groupCount == groupSizes.length) {
+            int capacity = groupCount * 2;
+            groupSizes = Arrays.copyOf(groupSizes, capacity);
+            groupWeights = Arrays.copyOf(groupWeights, capacity);
+            groupOwners = Arrays.copyOf(groupOwners, capacity);
+            order = Arrays.copyOf(order, capacity);
+            sortBuffer = Arrays.copyOf(sortBuffer, capacity);
+        }
+        groupSizes[groupCount] = partSize;
+        groupWeights[groupCount] = parts;
+        groupOwners[groupCount] = endpoint;
+        groupCount++;
+        partCount += parts;
+    }
+}
@@ -0,0 +1,66 @@
+package com.almostreliable.kubeio.energy;
+
+import java.util.Arrays;
+
+/**
+ * Hands out an amount of energy endpoint by endpoint, every endpoint is filled up before the next one gets anything.
+ * <p>
+ * The endpoints are served in the order they were added, so the caller decides who is served first. Nothing has to
+ * be sorted, so an allocation is linear in the number of endpoints it serves.
+ * <p>
+ * Instances keep their buffers between uses and are not thread-safe.
+ */
+public final class SequentialEnergyAllocator implements EnergyAllocator {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int endpointCount;
+    private int[] capacities = new int[INITIAL_CAPACITY];
+    private long totalCapacity;
+
+    @Override
+    public void reset() {
+        endpointCount = 0;
+        totalCapacity = 0;
+    }
+
+    @Override
+    public int add(int capacity, int connections) {
+        if (endpointCount == capacities.length) capacities = Arrays.copyOf(capacities, endpointCount * 2);
+        int endpoint = endpointCount++;
+        capacities[endpoint] = capacity;
+        if (capacity > 0) totalCapacity += capacity;
+        return endpoint;
+    }
+
+    @Override
+    public int size() {
+        return endpointCount;
+    }
+
+    @Override
+    public int getCapacity(int endpoint) {
+        return capacities[endpoint];
+    }
+
+    @Override
+    public long getTotalCapacity() {
+        return totalCapacity;
+    }
+
+    @Override
+    public void allocate(long amount, int[] result) {
+        if (amount >= totalCapacity) {
+            System.arraycopy(capacities, 0, result, 0, endpointCount);
+            return;
+        }
+        Arrays.fill(result, 0, endpointCount, 0);
+
+        long left = amount;
+        for (int endpoint = 0; endpoint < endpointCount && left > 0; endpoint++) {
+            int taken = (int) Math.min(Math.max(capacities[endpoint], 0), left);
+            result[endpoint] = taken;
+            left -= taken;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package com.almostreliable.kubeio.energy;
+
+import javax.annotation.ParametersAreNonnullByDefault;
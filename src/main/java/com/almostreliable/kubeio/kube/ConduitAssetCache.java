@@ -0,0 +1,202 @@
+package com.almostreliable.kubeio.kube;
+
+import com.almostreliable.kubeio.KubeIOConstants;
+import com.almostreliable.kubeio.enderio.CustomConduitEntry;
+import com.almostreliable.kubeio.kube.event.ConduitRegistryEvent;
+import com.enderio.EnderIO;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.mojang.logging.LogUtils;
+import dev.latvian.mods.kubejs.KubeJSPaths;
+import dev.latvian.mods.kubejs.client.ModelGenerator;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Caches the item models and lang entries generated for the custom conduits.
+ * <p>
+ * The assets are keyed by a hash of everything they are generated from: the id, name, model parent and texture of
+ * each conduit, and the version of the mod. They are kept in memory, so resource reloads don't generate them again,
+ * and written to a file named after the hash in the local directory of KubeJS, so the next start reads them instead
+ * of generating them as long as the conduits don't change. The file is replaced atomically and the files of other
+ * hashes are removed once it is in place.
+ */
+final class ConduitAssetCache {
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+    // changes the hash of all cached assets, has to be bumped when the generated assets change
+    private static final int FORMAT = 2;
+    private static final String FILE_PREFIX = "conduit_assets_";
+    private static final String FILE_SUFFIX = ".json";
+    private static final String HASH_KEY = "hash";
+    private static final String MODELS_KEY = "models";
+    private static final String LANG_KEY = "lang";
+    private static final Gson GSON = new Gson();
+
+    @Nullable private static String hash;
+    @Nullable private static JsonObject assets;
+
+    private ConduitAssetCache() {}
+
+    /**
+     * @return the generated item models, keyed by their resource location
+     */
+    static synchronized JsonObject getModels() {
+        return getAssets().getAsJsonObject(MODELS_KEY);
+    }
+
+    /**
+     * @return the generated lang entries, keyed by their translation key
+     */
+    static synchronized JsonObject getLang() {
+        return getAssets().getAsJsonObject(LANG_KEY);
+    }
+
+    private static JsonObject getAssets() {
+        String currentHash = hashConduits();
+        if (assets != null && currentHash.equals(hash)) return assets;
+
+        Path directory = KubeJSPaths.DIRECTORY.resolve("local").resolve(KubeIOConstants.MOD_ID);
+        Path file = directory.resolve(FILE_PREFIX + currentHash + FILE_SUFFIX);
+        JsonObject loaded = read(file, currentHash);
+        if (loaded == null) {
+            loaded = generate(currentHash);
+            write(directory, file, loaded);
+        }
+
+        hash = currentHash;
+        assets = loaded;
+        return loaded;
+    }
+
+    private static String hashConduits() {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putInt(FORMAT);
+        putString(hasher, KubeIOConstants.MOD_VERSION);
+        putString(hasher, getParent());
+        for (CustomConduitEntry conduit : ConduitRegistryEvent.CONDUITS.values()) {
+            putString(hasher, conduit.id());
+            putString(hasher, conduit.name());
+            putString(hasher, getTexture(conduit));
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        // the length keeps the boundaries between the strings unambiguous
+        hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+    }
+
+    private static String getParent() {
+        return EnderIO.loc("item/conduit").toString();
+    }
+
+    private static String getTexture(CustomConduitEntry conduit) {
+        return EnderIO.loc("block/conduit/" + conduit.id()).toString();
+    }
+
+    private static JsonObject generate(String currentHash) {
+        JsonObject models = new JsonObject();
+        JsonObject lang = new JsonObject();
+        String parent = getParent();
+        for (CustomConduitEntry conduit : ConduitRegistryEvent.CONDUITS.values()) {
+            ModelGenerator model = new ModelGenerator();
+            model.parent(parent);
+            model.texture("0", getTexture(conduit));
+            models.add(EnderIO.loc("models/item/" + conduit.id()).toString(), model.toJson());
+
+            lang.addProperty("item." + EnderIO.MODID + "." + conduit.id(), conduit.name());
+        }
+
+        JsonObject generated = new JsonObject();
+        generated.addProperty(HASH_KEY, currentHash);
+        generated.add(MODELS_KEY, models);
+        generated.add(LANG_KEY, lang);
+        return generated;
+    }
+
+    /**
+     * Reads the assets cached for the given hash. Files that don't hold the hash they are named after, e.g. because
+     * they were edited, are ignored.
+     */
+    @Nullable
+    private static JsonObject read(Path file, String currentHash) {
+        if (!Files.isRegularFile(file)) return null;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonObject cached = GSON.fromJson(reader, JsonObject.class);
+            if (cached != null && isObject(cached, MODELS_KEY) && isObject(cached, LANG_KEY) &&
+                cached.has(HASH_KEY) && currentHash.equals(cached.get(HASH_KEY).getAsString())) {
+                return cached;
+            }
+            LOGGER.warn("Ignoring invalid cached conduit assets in {}", file);
+        } catch (IOException | JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            LOGGER.warn("Failed to read cached conduit assets from {}", file, e);
+        }
+        return null;
+    }
+
+    private static boolean isObject(JsonObject json, String key) {
+        JsonElement element = json.get(key);
+        return element != null && element.isJsonObject();
+    }
+
+    /**
+     * Writes the assets to a temporary file and moves it into place, so the file is either complete or missing. The
+     * files of other hashes are only removed afterward. Failures only cost the next start a new generation, so they
+     * are logged and ignored.
+     */
+    private static void write(Path directory, Path file, JsonObject generated) {
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, FILE_PREFIX, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                GSON.toJson(generated, writer);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+            prune(directory, file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to cache conduit assets in {}", file, e);
+        } finally {
+            if (temp != null) deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * Removes the cached assets of other hashes and temporary files left behind by failed writes.
+     */
+    private static void prune(Path directory, Path current) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*")) {
+            for (Path path : files) {
+                if (!path.equals(current)) deleteQuietly(path);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete {}", path, e);
+        }
+    }
+}
@@ -1,15 +1,14 @@
 package com.almostreliable.kubeio.kube;
 
-import com.almostreliable.kubeio.enderio.CustomConduitEntry;
 import com.almostreliable.kubeio.kube.event.ConduitRegistryEvent;
+import com.almostreliable.kubeio.kube.recipe.RecipeComponentCache;
+import com.almostreliable.kubeio.kube.recipe.SmeltingRecipeInheritance;
 import com.almostreliable.kubeio.kube.schema.*;
-import com.almostreliable.kubeio.mixin.AlloySmeltingRecipeAccessor;
 import com.enderio.EnderIO;
 import com.enderio.base.common.init.EIORecipes;
 import com.enderio.core.common.recipes.CountedIngredient;
 import com.enderio.core.common.recipes.RecipeTypeSerializerPair;
 import com.enderio.machines.common.init.MachineRecipes;
-import com.enderio.machines.common.recipe.AlloySmeltingRecipe;
 import com.enderio.machines.common.recipe.SagMillingRecipe;
 import com.google.gson.JsonObject;
 import dev.latvian.mods.kubejs.KubeJSPlugin;
@@ -28,17 +27,12 @@ import dev.latvian.mods.kubejs.util.MapJS;
 import dev.latvian.mods.rhino.util.wrap.TypeWrappers;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.entity.MobCategory;
-import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.item.crafting.*;
 
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 public class KubePlugin extends KubeJSPlugin {
 
-    public static final Set<ResourceLocation> SMELTING_RECIPES = new HashSet<>();
-
     @Override
     public void registerEvents() {
         Events.GROUP.register();
@@ -59,44 +53,31 @@ public class KubePlugin extends KubeJSPlugin {
 
     @Override
     public void generateAssetJsons(AssetJsonGenerator generator) {
-        for (CustomConduitEntry conduit : ConduitRegistryEvent.CONDUITS) {
-            generator.itemModel(EnderIO.loc(conduit.id()), modelGenerator -> {
-                modelGenerator.parent(EnderIO.loc("item/conduit").toString());
-                modelGenerator.texture("0", EnderIO.loc("block/conduit/" + conduit.id()).toString());
-            });
+        for (var model : ConduitAssetCache.getModels().entrySet()) {
+            generator.json(new ResourceLocation(model.getKey()), model.getValue());
         }
     }
 
     @Override
     public void generateLang(LangEventJS event) {
-        for (CustomConduitEntry conduit : ConduitRegistryEvent.CONDUITS) {
-            event.add("item." + EnderIO.MODID + "." + conduit.id(), conduit.name());
+        for (var entry : ConduitAssetCache.getLang().entrySet()) {
+            event.add(entry.getKey(), entry.getValue().getAsString());
         }
     }
 
+    @Override
+    public void clearCaches() {
+        // before the tags are bound again, so no inherited recipe is reused with the contents of old tags
+        SmeltingRecipeInheritance.clearCaches();
+        // parsed against the registries of the last reload
+        RecipeComponentCache.clearAll();
+    }
+
     @Override
     public void injectRuntimeRecipes(
         RecipesEventJS event, RecipeManager manager, Map<ResourceLocation, Recipe<?>> recipesByName
     ) {
-        for (ResourceLocation recipeId : SMELTING_RECIPES) {
-            var recipe = recipesByName.get(recipeId);
-            if (!(recipe instanceof AlloySmeltingRecipe r)) {
-                continue;
-            }
-
-            var smeltingRecipe = (AlloySmeltingRecipeAccessor) r;
-            var inputs = smeltingRecipe.getInputs();
-            if (inputs.size() != 1 || inputs.get(0).count() != 1) continue;
-
-            Ingredient input = inputs.get(0).ingredient();
-            ItemStack output = smeltingRecipe.getOutput();
-            float experience = smeltingRecipe.getExperience();
-            ResourceLocation id = new ResourceLocation(recipeId.toString() + "_inherited");
-
-            recipesByName.put(id, new SmeltingRecipe(id, "", CookingBookCategory.MISC, input, output, experience, 200));
-        }
-
-        SMELTING_RECIPES.clear();
+        SmeltingRecipeInheritance.inject(recipesByName);
     }
 
     @Override
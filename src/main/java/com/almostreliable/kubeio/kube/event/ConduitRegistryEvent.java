@@ -1,41 +1,256 @@
 package com.almostreliable.kubeio.kube.event;
 
 import com.almostreliable.kubeio.enderio.CustomConduitEntry;
-import com.almostreliable.kubeio.enderio.CustomEnergyConduitType;
+import com.almostreliable.kubeio.enderio.CustomFluidConduitType;
+import com.almostreliable.kubeio.enderio.CustomItemConduitType;
+import com.almostreliable.kubeio.enderio.EnergyTickBudget;
+import com.almostreliable.kubeio.energy.EnergyDistributionStrategy;
 import com.enderio.EnderIO;
 import com.enderio.api.conduit.ConduitItemFactory;
+import com.enderio.api.conduit.ConduitType;
 import com.enderio.conduits.common.init.EIOConduitTypes;
 import com.google.common.base.Preconditions;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import dev.latvian.mods.kubejs.KubeJSPaths;
 import dev.latvian.mods.kubejs.event.EventJS;
+import dev.latvian.mods.kubejs.util.ConsoleJS;
+import dev.latvian.mods.kubejs.util.MapJS;
 import dev.latvian.mods.rhino.util.HideFromJS;
+import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.item.Item;
 import net.minecraftforge.registries.ForgeRegistries;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 public class ConduitRegistryEvent extends EventJS {
 
+    // indexed by id, in the order of registration
     @HideFromJS
-    public static final Set<CustomConduitEntry> CONDUITS = new HashSet<>();
+    public static final Map<String, CustomConduitEntry> CONDUITS = new LinkedHashMap<>();
 
     @SuppressWarnings("unused")
     public void registerEnergyConduit(String id, String name, int transferRate) {
-        Preconditions.checkArgument(!id.contains(":"), "id must not contain a colon (:)");
-        Preconditions.checkArgument(!id.contains(" "), "id must not contain a space");
+        registerEnergyConduit(id, name, transferRate, 1);
+    }
+
+    /**
+     * Registers an energy conduit that only ticks its networks every {@code tickInterval} ticks and transfers the
+     * energy of all skipped ticks at once. The throughput stays the same, but large networks cost less to tick.
+     */
+    @SuppressWarnings("unused")
+    public void registerEnergyConduit(String id, String name, int transferRate, int tickInterval) {
+        registerEnergyConduit(id, name, transferRate, tickInterval, "fair");
+    }
+
+    /**
+     * Registers an energy conduit with a strategy deciding which blocks get the energy if not all of them can be
+     * served: {@code fair} splits it evenly, {@code round_robin} fills one block after another and continues with the
+     * next block in the following tick, {@code nearest_first} fills the blocks closest to the other side first. The
+     * last two are cheaper for large networks.
+     */
+    @SuppressWarnings("unused")
+    public void registerEnergyConduit(String id, String name, int transferRate, int tickInterval, String strategy) {
+        registerEnergyConduit(id, name, transferRate, tickInterval, strategy, false);
+    }
+
+    /**
+     * Registers an energy conduit whose networks buffer energy between ticks. The buffer holds one transfer to all
+     * inserting connections, so providers and consumers don't have to be active in the same tick.
+     */
+    @SuppressWarnings("unused")
+    public void registerBufferedEnergyConduit(String id, String name, int transferRate) {
+        registerBufferedEnergyConduit(id, name, transferRate, 1);
+    }
+
+    @SuppressWarnings("unused")
+    public void registerBufferedEnergyConduit(String id, String name, int transferRate, int tickInterval) {
+        registerBufferedEnergyConduit(id, name, transferRate, tickInterval, "fair");
+    }
+
+    @SuppressWarnings("unused")
+    public void registerBufferedEnergyConduit(
+        String id, String name, int transferRate, int tickInterval, String strategy
+    ) {
+        registerEnergyConduit(id, name, transferRate, tickInterval, strategy, true);
+    }
+
+    /**
+     * Registers an energy conduit without a transfer rate. The connected blocks are the only limit.
+     */
+    @SuppressWarnings("unused")
+    public void registerUnboundedEnergyConduit(String id, String name) {
+        registerUnboundedEnergyConduit(id, name, 1);
+    }
+
+    @SuppressWarnings("unused")
+    public void registerUnboundedEnergyConduit(String id, String name, int tickInterval) {
+        registerEnergyConduit(
+            new EnergyConduitTier(id, name, 0, tickInterval, EnergyDistributionStrategy.FAIR, false, true)
+        );
+    }
+
+    /**
+     * Registers a table of energy conduit tiers in one call. Each tier is an object with an {@code id}, a
+     * {@code name} and a {@code transferRate}, and optionally a {@code tickInterval}, a {@code strategy}, and whether
+     * it's {@code buffered} or {@code unbounded}, like the single registrations. An unbounded tier doesn't need a
+     * transfer rate.
+     * <p>
+     * The whole table is checked before any tier is registered. Tiers with invalid values, e.g. a transfer rate or
+     * tick interval below 1, are reported to the startup console and left out.
+     */
+    @SuppressWarnings("unused")
+    public void registerEnergyConduits(List<?> tiers) {
+        List<JsonObject> table = new ArrayList<>(tiers.size());
+        for (Object tier : tiers) {
+            JsonObject json = tier instanceof Map<?, ?> map ? MapJS.json(map) : null;
+            if (json == null) throw new IllegalArgumentException("invalid energy conduit tier: " + tier);
+            table.add(json);
+        }
+        registerTiers(table);
+    }
+
+    /**
+     * Registers the energy conduit tiers of a JSON file, given relative to the {@code kubejs} directory. The file holds
+     * an array of tiers like {@link #registerEnergyConduits(List)} takes.
+     */
+    @SuppressWarnings("unused")
+    public void registerEnergyConduitsFromJson(String file) {
+        Path path = KubeJSPaths.DIRECTORY.resolve(file).normalize();
+        Preconditions.checkArgument(path.startsWith(KubeJSPaths.DIRECTORY), "file must be within the kubejs directory");
+
+        JsonArray tiers;
+        try (Reader reader = Files.newBufferedReader(path)) {
+            tiers = JsonParser.parseReader(reader).getAsJsonArray();
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            throw new IllegalArgumentException("could not read energy conduit tiers from " + file, e);
+        }
+
+        List<JsonObject> table = new ArrayList<>(tiers.size());
+        for (JsonElement tier : tiers) {
+            if (!tier.isJsonObject()) throw new IllegalArgumentException("invalid energy conduit tier: " + tier);
+            table.add(tier.getAsJsonObject());
+        }
+        registerTiers(table);
+    }
+
+    @SuppressWarnings("unused")
+    public void registerItemConduit(String id, String name, int stacksPerOperation) {
+        registerItemConduit(id, name, stacksPerOperation, 1);
+    }
+
+    /**
+     * Registers an item conduit that moves up to {@code stacksPerOperation} stacks out of every extracting connection
+     * once every {@code tickInterval} ticks. Moving many items rarely is cheaper for the server than moving a few
+     * every tick.
+     */
+    @SuppressWarnings("unused")
+    public void registerItemConduit(String id, String name, int stacksPerOperation, int tickInterval) {
         Preconditions.checkArgument(
-            CONDUITS.stream().noneMatch(conduit -> conduit.id().equals(id)),
-            "id must be unique"
+            stacksPerOperation > 0 && stacksPerOperation <= Integer.MAX_VALUE / 64,
+            "stacks per operation must be positive and fit in an int as items"
         );
+        Preconditions.checkArgument(tickInterval > 0, "tick interval must be positive");
+        checkId(id);
+        registerConduit(id, name, location -> new CustomItemConduitType(location, stacksPerOperation, tickInterval));
+    }
+
+    @SuppressWarnings("unused")
+    public void registerFluidConduit(String id, String name, int transferRate) {
+        registerFluidConduit(id, name, transferRate, 1);
+    }
+
+    /**
+     * Registers a fluid conduit that moves {@code transferRate} mB per tick out of every extracting connection, in
+     * one operation every {@code tickInterval} ticks. The throughput stays the same, but large networks cost less to
+     * tick.
+     */
+    @SuppressWarnings("unused")
+    public void registerFluidConduit(String id, String name, int transferRate, int tickInterval) {
+        Preconditions.checkArgument(transferRate > 0, "transfer rate must be positive");
+        Preconditions.checkArgument(tickInterval > 0, "tick interval must be positive");
+        checkId(id);
+        registerConduit(id, name, location -> new CustomFluidConduitType(location, transferRate, tickInterval));
+    }
+
+    /**
+     * Sets the time the custom energy conduits of a level may take per tick, 2 ms by default. Networks that exceed it
+     * wait for a later tick and catch up on the energy they missed. Use 0 to disable the limit.
+     */
+    @SuppressWarnings("unused")
+    public void setEnergyTickBudget(double milliseconds) {
+        EnergyTickBudget.setBudget(milliseconds);
+    }
+
+    private void registerEnergyConduit(
+        String id, String name, int transferRate, int tickInterval, String strategy, boolean buffered
+    ) {
+        var distributionStrategy = EnergyDistributionStrategy.byName(strategy);
+        registerEnergyConduit(
+            new EnergyConduitTier(id, name, transferRate, tickInterval, distributionStrategy, buffered, false)
+        );
+    }
+
+    private void registerEnergyConduit(EnergyConduitTier tier) {
+        checkId(tier.id());
+        registerConduit(tier.id(), tier.name(), tier::createType);
+    }
+
+    /**
+     * Reads and checks all tiers of a table before registering them. Tiers that can't be read are reported to the
+     * startup console by their id and skipped, the other tiers are still registered.
+     */
+    private void registerTiers(List<JsonObject> tiers) {
+        List<EnergyConduitTier> table = new ArrayList<>(tiers.size());
+        Set<String> ids = new HashSet<>();
+        for (JsonObject json : tiers) {
+            EnergyConduitTier tier;
+            try {
+                tier = EnergyConduitTier.fromJson(json);
+            } catch (IllegalArgumentException | JsonParseException e) {
+                ConsoleJS.STARTUP.error("Skipping energy conduit tier " + json.get("id") + ": " + e.getMessage());
+                continue;
+            }
+            checkId(tier.id());
+            Preconditions.checkArgument(ids.add(tier.id()), "id must be unique: " + tier.id());
+            table.add(tier);
+        }
+        for (EnergyConduitTier tier : table) {
+            registerConduit(tier.id(), tier.name(), tier::createType);
+        }
+    }
+
+    private static void checkId(String id) {
+        Preconditions.checkArgument(!id.contains(":"), "id must not contain a colon (:)");
+        Preconditions.checkArgument(!id.contains(" "), "id must not contain a space");
+        Preconditions.checkArgument(!CONDUITS.containsKey(id), "id must be unique");
+    }
 
-        var type = EIOConduitTypes.CONDUIT_TYPES.register(id, () -> new CustomEnergyConduitType(
-            EnderIO.loc(id),
-            transferRate
-        ));
+    /**
+     * Registers the conduit type and its item, the id has to be checked before.
+     */
+    private void registerConduit(
+        String id, String name, Function<ResourceLocation, ? extends ConduitType<?>> factory
+    ) {
+        ResourceLocation location = EnderIO.loc(id);
+        var type = EIOConduitTypes.CONDUIT_TYPES.register(id, () -> factory.apply(location));
 
         Item item = ConduitItemFactory.build(type, new Item.Properties());
-        ForgeRegistries.ITEMS.register(EnderIO.loc(id), item);
+        ForgeRegistries.ITEMS.register(location, item);
 
-        CONDUITS.add(new CustomConduitEntry(id, name, item));
+        CONDUITS.put(id, new CustomConduitEntry(id, name, item));
     }
 }
@@ -0,0 +1,55 @@
+package com.almostreliable.kubeio.kube.event;
+
+import com.almostreliable.kubeio.enderio.CustomEnergyConduitType;
+import com.almostreliable.kubeio.energy.EnergyDistributionStrategy;
+import com.enderio.api.conduit.ConduitType;
+import com.google.common.base.Preconditions;
+import com.google.gson.JsonObject;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.GsonHelper;
+
+/**
+ * A single tier of an energy conduit, either from one of the registration methods or an entry of a tier table.
+ */
+record EnergyConduitTier(
+    String id,
+    String name,
+    int transferRate,
+    int tickInterval,
+    EnergyDistributionStrategy strategy,
+    boolean buffered,
+    boolean unbounded
+) {
+
+    EnergyConduitTier {
+        Preconditions.checkArgument(
+            unbounded || transferRate > 0,
+            "transfer rate must be at least 1, got %s",
+            transferRate
+        );
+        Preconditions.checkArgument(tickInterval > 0, "tick interval must be at least 1, got %s", tickInterval);
+        Preconditions.checkArgument(!unbounded || !buffered, "unbounded conduits can't be buffered");
+    }
+
+    /**
+     * Reads a tier from an entry of a tier table. Only the id and the name are required, and the transfer rate if the
+     * tier isn't unbounded.
+     */
+    static EnergyConduitTier fromJson(JsonObject json) {
+        boolean unbounded = GsonHelper.getAsBoolean(json, "unbounded", false);
+        return new EnergyConduitTier(
+            GsonHelper.getAsString(json, "id"),
+            GsonHelper.getAsString(json, "name"),
+            unbounded ? 0 : GsonHelper.getAsInt(json, "transferRate"),
+            GsonHelper.getAsInt(json, "tickInterval", 1),
+            EnergyDistributionStrategy.byName(GsonHelper.getAsString(json, "strategy", "fair")),
+            GsonHelper.getAsBoolean(json, "buffered", false),
+            unbounded
+        );
+    }
+
+    ConduitType<?> createType(ResourceLocation location) {
+        if (unbounded) return CustomEnergyConduitType.unbounded(location, tickInterval);
+        return new CustomEnergyConduitType(location, transferRate, tickInterval, buffered, strategy);
+    }
+}
@@ -0,0 +1,93 @@
+package com.almostreliable.kubeio.kube.recipe;
+
+import com.mojang.datafixers.util.Either;
+import com.mojang.logging.LogUtils;
+import net.minecraft.tags.TagKey;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.enchantment.Enchantment;
+import net.minecraft.world.level.block.Block;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Interns the values the recipe components parse from strings, as scripts tend to repeat the same ids a lot.
+ * <p>
+ * The values are resolved against the registries of the current reload, so the caches are cleared with every reload.
+ * Only resolved values are cached, unknown ids are parsed and rejected again. Recipes may be parsed in parallel, so
+ * the caches are safe to use from multiple threads.
+ *
+ * @param <V> the type of the parsed values
+ */
+public final class RecipeComponentCache<V> {
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    static final RecipeComponentCache<TagKey<Block>> BLOCK_TAGS = new RecipeComponentCache<>("block tags");
+    static final RecipeComponentCache<Block> BLOCK_IDS = new RecipeComponentCache<>("block ids");
+    static final RecipeComponentCache<Block> BLOCK_STATES = new RecipeComponentCache<>("block states");
+    static final RecipeComponentCache<Item> ITEMS = new RecipeComponentCache<>("items");
+    static final RecipeComponentCache<ParsedInput> INPUT_ITEMS = new RecipeComponentCache<>("input items");
+    static final RecipeComponentCache<Enchantment> ENCHANTMENTS = new RecipeComponentCache<>("enchantments");
+
+    private static final List<RecipeComponentCache<?>> CACHES = List.of(
+        BLOCK_TAGS,
+        BLOCK_IDS,
+        BLOCK_STATES,
+        ITEMS,
+        INPUT_ITEMS,
+        ENCHANTMENTS
+    );
+
+    private final String name;
+    private final Map<String, V> values = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private RecipeComponentCache(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Clears all caches and logs how often they were hit since the last reload.
+     */
+    public static void clearAll() {
+        for (RecipeComponentCache<?> cache : CACHES) {
+            long hitCount = cache.hits.sumThenReset();
+            long missCount = cache.misses.sumThenReset();
+            if (hitCount + missCount > 0) {
+                LOGGER.debug("Recipe component cache of {}: {} hits, {} misses", cache.name, hitCount, missCount);
+            }
+            cache.values.clear();
+        }
+    }
+
+    /**
+     * Returns the cached value of the given string or parses it. The parser may throw for invalid strings or return
+     * null if the string can't be parsed into a value of this cache, neither is cached.
+     */
+    @Nullable
+    V get(String key, Function<String, V> parser) {
+        V value = values.get(key);
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+
+        misses.increment();
+        value = parser.apply(key);
+        if (value == null) return null;
+        V previous = values.putIfAbsent(key, value);
+        return previous == null ? value : previous;
+    }
+
+    /**
+     * An item or item tag parsed from an input item, together with its count.
+     */
+    record ParsedInput(Either<Item, TagKey<Item>> item, int count) {}
+}
@@ -27,6 +27,7 @@ import net.minecraft.world.item.enchantment.Enchantment;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraftforge.registries.ForgeRegistries;
+import org.jetbrains.annotations.Nullable;
 
 @SuppressWarnings("StaticMethodOnlyUsedInOneClass")
 public interface RecipeComponents {
@@ -78,35 +79,24 @@ public interface RecipeComponents {
             return value.toJson();
         }
 
-        @SuppressWarnings("CastToIncompatibleInterface")
         @Override
         public SagMillingRecipe.OutputItem read(RecipeJS recipe, Object from) {
             if (from instanceof SagMillingRecipe.OutputItem outputItem) {
                 return outputItem;
             }
 
-            if (from instanceof Ingredient || from instanceof InputItem || from instanceof String) {
-                InputItem inputItem = InputItem.of(from);
-                int count = inputItem.count;
-
-                var ingredientValues = ((IngredientAccessor) inputItem.ingredient).kubeio$getValues();
-                if (ingredientValues.length > 1) {
-                    throw new IllegalArgumentException("Input item has more than one value");
-                }
-                var ingredientValue = ingredientValues[0];
-
-                if (ingredientValue instanceof Ingredient.TagValue tagValue) {
-                    var tag = ((TagValueAccessor) tagValue).kubeio$getTag();
-                    return SagMillingRecipe.OutputItem.of(tag, count, 1f, false);
-                }
-
-                if (ingredientValue instanceof Ingredient.ItemValue itemValue) {
-                    var items = itemValue.getItems();
-                    if (items.size() > 1) {
-                        throw new IllegalArgumentException("Input item has more than one item");
-                    }
-                    return SagMillingRecipe.OutputItem.of(items.iterator().next().getItem(), count, 1f, false);
-                }
+            RecipeComponentCache.ParsedInput parsedInput = null;
+            if (from instanceof String string) {
+                parsedInput = RecipeComponentCache.INPUT_ITEMS.get(string, this::parseInput);
+            } else if (from instanceof Ingredient || from instanceof InputItem) {
+                parsedInput = parseInput(from);
+            }
+            if (parsedInput != null) {
+                int count = parsedInput.count();
+                return parsedInput.item().map(
+                    item -> SagMillingRecipe.OutputItem.of(item, count, 1f, false),
+                    tag -> SagMillingRecipe.OutputItem.of(tag, count, 1f, false)
+                );
             }
 
             if (from instanceof JsonObject jsonObject) {
@@ -124,6 +114,39 @@ public interface RecipeComponents {
         public boolean isOutput(RecipeJS recipe, SagMillingRecipe.OutputItem value, ReplacementMatch match) {
             return true;
         }
+
+        /**
+         * Parses an input item of a single item or item tag.
+         *
+         * @return null if the input item is neither an item nor an item tag
+         */
+        @SuppressWarnings("CastToIncompatibleInterface")
+        @Nullable
+        private RecipeComponentCache.ParsedInput parseInput(Object from) {
+            InputItem inputItem = InputItem.of(from);
+            int count = inputItem.count;
+
+            var ingredientValues = ((IngredientAccessor) inputItem.ingredient).kubeio$getValues();
+            if (ingredientValues.length > 1) {
+                throw new IllegalArgumentException("Input item has more than one value");
+            }
+            var ingredientValue = ingredientValues[0];
+
+            if (ingredientValue instanceof Ingredient.TagValue tagValue) {
+                var tag = ((TagValueAccessor) tagValue).kubeio$getTag();
+                return new RecipeComponentCache.ParsedInput(Either.right(tag), count);
+            }
+
+            if (ingredientValue instanceof Ingredient.ItemValue itemValue) {
+                var items = itemValue.getItems();
+                if (items.size() > 1) {
+                    throw new IllegalArgumentException("Input item has more than one item");
+                }
+                return new RecipeComponentCache.ParsedInput(Either.left(items.iterator().next().getItem()), count);
+            }
+
+            return null;
+        }
     };
 
     RecipeComponent<SagMillingRecipe.OutputItem[]> OUTPUT_ITEM_ARRAY = OUTPUT_ITEM.asArray();
@@ -147,6 +170,10 @@ public interface RecipeComponents {
 
         @Override
         public Item read(RecipeJS recipe, Object from) {
+            if (from instanceof String string) {
+                return RecipeComponentCache.ITEMS.get(string, id -> OutputItem.of(id).item.getItem());
+            }
+
             OutputItem outputItem = OutputItem.of(from);
             return outputItem.item.getItem();
         }
@@ -199,17 +226,12 @@ public interface RecipeComponents {
             if (from instanceof JsonObject jsonObject) {
                 if (jsonObject.has("block")) {
                     String id = jsonObject.get("block").getAsString();
-                    Block block = ForgeRegistries.BLOCKS.getValue(new ResourceLocation(id));
-                    if (block == null) {
-                        throw new IllegalArgumentException("Unknown block: " + id);
-                    }
-                    return Either.left(block);
+                    return Either.left(RecipeComponentCache.BLOCK_IDS.get(id, this::parseBlockId));
                 }
 
                 if (jsonObject.has("tag")) {
                     String id = jsonObject.get("tag").getAsString();
-                    TagKey<Block> tag = BlockTags.create(new ResourceLocation(id));
-                    return Either.right(tag);
+                    return Either.right(RecipeComponentCache.BLOCK_TAGS.get(id, this::parseBlockTag));
                 }
 
                 throw new IllegalArgumentException("Invalid block or block tag: " + jsonObject);
@@ -217,19 +239,33 @@ public interface RecipeComponents {
 
             if (from instanceof String id) {
                 if (id.startsWith("#")) {
-                    TagKey<Block> tag = BlockTags.create(new ResourceLocation(id.substring(1)));
-                    return Either.right(tag);
+                    return Either.right(RecipeComponentCache.BLOCK_TAGS.get(id.substring(1), this::parseBlockTag));
                 }
-
-                BlockState state = UtilsJS.parseBlockState(id);
-                if (state == null || state.isAir()) {
-                    throw new IllegalArgumentException("Unknown block: " + id);
-                }
-                return Either.left(state.getBlock());
+                return Either.left(RecipeComponentCache.BLOCK_STATES.get(id, this::parseBlockState));
             }
 
             throw new IllegalArgumentException("Invalid block or block tag: " + from);
         }
+
+        private Block parseBlockId(String id) {
+            Block block = ForgeRegistries.BLOCKS.getValue(new ResourceLocation(id));
+            if (block == null) {
+                throw new IllegalArgumentException("Unknown block: " + id);
+            }
+            return block;
+        }
+
+        private Block parseBlockState(String id) {
+            BlockState state = UtilsJS.parseBlockState(id);
+            if (state == null || state.isAir()) {
+                throw new IllegalArgumentException("Unknown block: " + id);
+            }
+            return state.getBlock();
+        }
+
+        private TagKey<Block> parseBlockTag(String id) {
+            return BlockTags.create(new ResourceLocation(id));
+        }
     };
 
     RecipeComponent<Either<Block, TagKey<Block>>[]> BLOCK_OR_TAG_ARRAY = BLOCK_OR_TAG.asArray();
@@ -263,14 +299,18 @@ public interface RecipeComponents {
             }
 
             if (from instanceof String enchantmentId) {
-                Enchantment enchantment = ForgeRegistries.ENCHANTMENTS.getValue(new ResourceLocation(enchantmentId));
-                if (enchantment == null) {
-                    throw new IllegalArgumentException("Unknown enchantment: " + enchantmentId);
-                }
-                return enchantment;
+                return RecipeComponentCache.ENCHANTMENTS.get(enchantmentId, this::parseEnchantment);
             }
 
             throw new IllegalArgumentException("Invalid enchantment: " + from);
         }
+
+        private Enchantment parseEnchantment(String id) {
+            Enchantment enchantment = ForgeRegistries.ENCHANTMENTS.getValue(new ResourceLocation(id));
+            if (enchantment == null) {
+                throw new IllegalArgumentException("Unknown enchantment: " + id);
+            }
+            return enchantment;
+        }
     };
 }
@@ -0,0 +1,151 @@
+package com.almostreliable.kubeio.kube.recipe;
+
+import com.almostreliable.kubeio.mixin.AlloySmeltingRecipeAccessor;
+import com.enderio.core.common.recipes.CountedIngredient;
+import com.enderio.machines.common.recipe.AlloySmeltingRecipe;
+import dev.latvian.mods.kubejs.recipe.RecipeJS;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.item.crafting.CookingBookCategory;
+import net.minecraft.world.item.crafting.Ingredient;
+import net.minecraft.world.item.crafting.Recipe;
+import net.minecraft.world.item.crafting.SmeltingRecipe;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inherits smelting recipes from alloy smelting recipes that were marked as smelting by a script.
+ * <p>
+ * The marks only live for a single recipe event. The inherited recipes are remembered by the id of their alloy recipe
+ * together with a key of its content, so a reload only builds the recipes of alloy recipes that changed. The key holds
+ * the items the input currently lists, so a recipe is built again when the contents of a tag in its input changed.
+ * Recipes with inputs other than plain vanilla ingredients are always built again. Inherited recipes of alloy recipes
+ * that are no longer marked are dropped with the reload.
+ */
+public final class SmeltingRecipeInheritance {
+
+    private static final String SUFFIX = "_inherited";
+    private static final int COOKING_TIME = 200;
+
+    private static final Set<RecipeJS> MARKED = Collections.newSetFromMap(new IdentityHashMap<>());
+    // the recipes inherited by the last injection, checked against the rebound tags before they are reused
+    private static Map<ResourceLocation, InheritedRecipe> previous = Map.of();
+    private static Map<ResourceLocation, InheritedRecipe> inherited = new HashMap<>();
+
+    private SmeltingRecipeInheritance() {}
+
+    /**
+     * Marks the given alloy recipe to be inherited by the current recipe event. The id is read when the recipes are
+     * injected, so it may still change afterward.
+     */
+    public static void mark(RecipeJS recipe) {
+        MARKED.add(recipe);
+    }
+
+    /**
+     * Clears the marks of a recipe event that failed before its recipes were injected, and moves the inherited
+     * recipes aside, so none of them is reused before its key was built again from the rebound tags.
+     */
+    public static void clearCaches() {
+        MARKED.clear();
+        if (!inherited.isEmpty()) {
+            previous = inherited;
+            inherited = new HashMap<>();
+        }
+    }
+
+    /**
+     * Adds the smelting recipes inherited from the marked alloy recipes and clears the marks for the next event.
+     */
+    public static void inject(Map<ResourceLocation, Recipe<?>> recipesByName) {
+        Map<ResourceLocation, InheritedRecipe> last = inherited.isEmpty() ? previous : inherited;
+        Map<ResourceLocation, InheritedRecipe> current = new HashMap<>(MARKED.size());
+        for (RecipeJS marked : MARKED) {
+            ResourceLocation recipeId = marked.getOrCreateId();
+            if (!(recipesByName.get(recipeId) instanceof AlloySmeltingRecipe recipe)) continue;
+
+            InheritedRecipe smeltingRecipe = inherit(recipeId, (AlloySmeltingRecipeAccessor) recipe, last);
+            if (smeltingRecipe == null) continue;
+            recipesByName.put(smeltingRecipe.recipe().getId(), smeltingRecipe.recipe());
+            current.put(recipeId, smeltingRecipe);
+        }
+
+        MARKED.clear();
+        previous = Map.of();
+        inherited = current;
+    }
+
+    /**
+     * Returns the smelting recipe inherited from the given alloy recipe, reusing the one of the last reload if the
+     * alloy recipe didn't change. Only alloy recipes with a single input of a single item can be inherited.
+     */
+    @Nullable
+    private static InheritedRecipe inherit(
+        ResourceLocation recipeId, AlloySmeltingRecipeAccessor recipe, Map<ResourceLocation, InheritedRecipe> last
+    ) {
+        List<CountedIngredient> inputs = recipe.getInputs();
+        if (inputs.size() != 1 || inputs.get(0).count() != 1) return null;
+
+        Ingredient input = inputs.get(0).ingredient();
+        ItemStack output = recipe.getOutput();
+        float experience = recipe.getExperience();
+        Key key = Key.of(input, output, experience, COOKING_TIME);
+
+        InheritedRecipe cached = last.get(recipeId);
+        // other ingredients may test more than the items they list, e.g. the NBT
+        boolean reusable = input.getClass() == Ingredient.class;
+        if (reusable && cached != null && cached.key().equals(key)) return cached;
+
+        ResourceLocation id = new ResourceLocation(recipeId + SUFFIX);
+        var smeltingRecipe = new SmeltingRecipe(
+            id,
+            "",
+            CookingBookCategory.MISC,
+            input,
+            output.copy(),
+            experience,
+            COOKING_TIME
+        );
+        return new InheritedRecipe(key, smeltingRecipe);
+    }
+
+    private record InheritedRecipe(Key key, SmeltingRecipe recipe) {}
+
+    /**
+     * The content of an alloy recipe a smelting recipe is built from.
+     *
+     * @param inputItems the items the input lists, in order
+     * @param resultTag  the tag of the result, compared by content
+     */
+    private record Key(
+        List<Item> inputItems, Item result, int resultCount, @Nullable CompoundTag resultTag, float experience,
+        int cookingTime
+    ) {
+
+        private static Key of(Ingredient input, ItemStack output, float experience, int cookingTime) {
+            ItemStack[] stacks = input.getItems();
+            List<Item> inputItems = new ArrayList<>(stacks.length);
+            for (ItemStack stack : stacks) {
+                inputItems.add(stack.getItem());
+            }
+            CompoundTag resultTag = output.getTag();
+            return new Key(
+                inputItems,
+                output.getItem(),
+                output.getCount(),
+                resultTag == null ? null : resultTag.copy(),
+                experience,
+                cookingTime
+            );
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package com.almostreliable.kubeio.kube.schema;
 
-import com.almostreliable.kubeio.kube.KubePlugin;
 import com.almostreliable.kubeio.kube.recipe.CommonRecipeKeys;
 import com.almostreliable.kubeio.kube.recipe.RecipeComponents;
+import com.almostreliable.kubeio.kube.recipe.SmeltingRecipeInheritance;
 import com.enderio.core.common.recipes.CountedIngredient;
 import com.enderio.machines.common.recipe.AlloySmeltingRecipe;
 import com.enderio.machines.data.recipes.AlloyRecipeProvider;
@@ -36,7 +36,7 @@ public interface AlloySmelterRecipeSchema extends CommonRecipeKeys {
 
         public AlloySmelterRecipeJS smelting() {
             setValue(IS_SMELTING, true);
-            KubePlugin.SMELTING_RECIPES.add(getOrCreateId());
+            SmeltingRecipeInheritance.mark(this);
             return this;
         }
     }
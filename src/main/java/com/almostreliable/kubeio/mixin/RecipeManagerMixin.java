@@ -0,0 +1,42 @@
+package com.almostreliable.kubeio.mixin;
+
+import com.almostreliable.kubeio.enderio.MachineRecipeIndex;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.Container;
+import net.minecraft.world.item.crafting.Recipe;
+import net.minecraft.world.item.crafting.RecipeManager;
+import net.minecraft.world.item.crafting.RecipeType;
+import net.minecraft.world.level.Level;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.Map;
+import java.util.Optional;
+
+@Mixin(RecipeManager.class)
+public abstract class RecipeManagerMixin {
+
+    @Unique private final MachineRecipeIndex kubeio$machineRecipeIndex = new MachineRecipeIndex();
+
+    @Shadow
+    private <C extends Container, T extends Recipe<C>> Map<ResourceLocation, T> byType(RecipeType<T> type) {
+        throw new AssertionError();
+    }
+
+    @Inject(
+        method = "getRecipeFor(Lnet/minecraft/world/item/crafting/RecipeType;Lnet/minecraft/world/Container;" +
+                 "Lnet/minecraft/world/level/Level;)Ljava/util/Optional;",
+        at = @At("HEAD"),
+        cancellable = true
+    )
+    private <C extends Container, T extends Recipe<C>> void kubeio$getIndexedRecipe(
+        RecipeType<T> type, C container, Level level, CallbackInfoReturnable<Optional<T>> cir
+    ) {
+        if (!MachineRecipeIndex.isIndexed(type)) return;
+        cir.setReturnValue(kubeio$machineRecipeIndex.getRecipeFor(type, byType(type), container, level));
+    }
+}
@@ -0,0 +1,62 @@
+package com.almostreliable.kubeio.energy;
+
+import com.almostreliable.kubeio.energy.EnergyNetworkFixture.Scenario;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static com.almostreliable.kubeio.energy.EnergyNetworkFixture.TRANSFER_RATE;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a network with a stable layout doesn't allocate once the distributor's buffers have grown.
+ */
+class EnergyDistributorAllocationTest {
+
+    private static final int BLOCKS = 1000;
+    private static final int WARMUP_TICKS = 2_000;
+    private static final int TICKS = 10_000;
+
+    @Test
+    void steadyStateTicksDoNotAllocate() {
+        for (EnergyDistributionStrategy strategy : EnergyDistributionStrategy.values()) {
+            for (Scenario scenario : Scenario.values()) {
+                assertFlat(strategy, scenario, false);
+                assertFlat(strategy, scenario, true);
+            }
+        }
+    }
+
+    private static void assertFlat(EnergyDistributionStrategy strategy, Scenario scenario, boolean buffered) {
+        EnergyDistributor distributor = new EnergyDistributor(TRANSFER_RATE, strategy);
+        EnergyNetworkFixture.addBlocks(distributor, EnergyNetworkFixture.createBlocks(scenario, BLOCKS, 42));
+
+        long transferred = 0;
+        for (int i = 0; i < WARMUP_TICKS; i++) {
+            transferred += tick(distributor, buffered);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < TICKS; i++) {
+            transferred += tick(distributor, buffered);
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertTrue(transferred > 0, () -> scenario + " with " + strategy + " didn't transfer anything");
+        // a single allocation per tick would already exceed this
+        assertTrue(
+            allocated < TICKS,
+            () -> scenario + " with " + strategy + (buffered ? " (buffered)" : "") + " allocated " + allocated +
+                " bytes in " + TICKS + " ticks"
+        );
+    }
+
+    private static long tick(EnergyDistributor distributor, boolean buffered) {
+        if (buffered) distributor.setBuffer(TRANSFER_RATE * 10L, TRANSFER_RATE * 20L);
+        distributor.distribute();
+        return distributor.commit();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,532 @@
+package com.almostreliable.kubeio.energy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EnergyDistributorTest {
+
+    private static final int CASES = 5_000;
+
+    /**
+     * Runs random networks where some blocks accept less than they simulated and checks that the energy of all blocks
+     * and the buffer stays the same.
+     */
+    @Test
+    void conservesEnergy() {
+        Random random = new Random(42);
+        for (int i = 0; i < CASES; i++) {
+            EnergyDistributionStrategy strategy = EnergyDistributionStrategy.values()[i % 3];
+            boolean buffered = random.nextBoolean();
+            EnergyDistributor distributor = random.nextInt(4) == 0 ?
+                EnergyDistributor.unbounded(strategy) :
+                new EnergyDistributor(1 + random.nextInt(500), strategy);
+            Storage[] storages = new Storage[1 + random.nextInt(20)];
+            for (int j = 0; j < storages.length; j++) {
+                storages[j] = Storage.random(random);
+                int block = distributor.addBlock();
+                int kind = random.nextInt(3);
+                for (int k = random.nextInt(4); kind != 1 && k >= 0; k--) {
+                    distributor.addInsert(block, storages[j]);
+                }
+                for (int k = random.nextInt(4); kind != 0 && k >= 0; k--) {
+                    distributor.addExtract(block, storages[j]);
+                }
+            }
+
+            long bufferCapacity = random.nextInt(2000);
+            long buffer = random.nextInt(3000);
+            for (int tick = 0; tick < 5; tick++) {
+                long before = buffer + Storage.sum(storages);
+                if (buffered) distributor.setBuffer(buffer, bufferCapacity);
+                distributor.distribute();
+                long inserted = distributor.commit();
+                if (buffered) buffer = distributor.getBufferedEnergy();
+                long after = buffer + Storage.sum(storages);
+
+                int currentCase = i;
+                assertTrue(inserted >= 0);
+                assertTrue(buffer >= 0, () -> "negative buffer in case " + currentCase);
+                assertEquals(before, after, () -> "energy changed in case " + currentCase);
+            }
+        }
+    }
+
+    /**
+     * Checks that planning before the commit, on the calling thread or the fork-join pool, transfers the same as
+     * letting the commit split the energy, also with blocks accepting less than they simulated.
+     */
+    @Test
+    void plansLikeCommit() {
+        Random random = new Random(42);
+        for (int i = 0; i < CASES; i++) {
+            EnergyDistributionStrategy strategy = EnergyDistributionStrategy.values()[i % 3];
+            boolean parallel = random.nextBoolean();
+            long transferRate = 1 + random.nextInt(500);
+            var planned = new EnergyDistributor(transferRate, strategy);
+            var unplanned = new EnergyDistributor(transferRate, strategy);
+            int blocks = 1 + random.nextInt(20);
+            Storage[] plannedStorages = new Storage[blocks];
+            Storage[] unplannedStorages = new Storage[blocks];
+            for (int j = 0; j < blocks; j++) {
+                plannedStorages[j] = Storage.random(random);
+                unplannedStorages[j] = plannedStorages[j].copy();
+                int kind = random.nextInt(3);
+                int insertCount = kind == 1 ? 0 : 1 + random.nextInt(4);
+                int extractCount = kind == 0 ? 0 : 1 + random.nextInt(4);
+                addConnections(planned, plannedStorages[j], insertCount, extractCount);
+                addConnections(unplanned, unplannedStorages[j], insertCount, extractCount);
+            }
+
+            for (int tick = 0; tick < 3; tick++) {
+                planned.distribute();
+                planned.plan(parallel);
+                long plannedInserted = planned.commit();
+                unplanned.distribute();
+                long unplannedInserted = unplanned.commit();
+
+                String message = "case " + i + " in tick " + tick;
+                assertEquals(unplannedInserted, plannedInserted, () -> message);
+                assertArrayEquals(
+                    Storage.energies(unplannedStorages),
+                    Storage.energies(plannedStorages),
+                    () -> message
+                );
+            }
+        }
+    }
+
+    /**
+     * Compares the fair distribution with the sort-and-split distribution the energy conduits used before, on blocks
+     * that are only limited by what they store. Blocks are added in the same order, so ties are resolved the same way.
+     */
+    @Test
+    void matchesSortAndSplit() {
+        Random random = new Random(42);
+        for (int i = 0; i < CASES; i++) {
+            int transferRate = 1 + random.nextInt(500);
+            EnergyDistributor distributor = new EnergyDistributor(transferRate);
+            int blocks = 1 + random.nextInt(20);
+            Storage[] storages = new Storage[blocks];
+            Storage[] expected = new Storage[blocks];
+            int[] insertCounts = new int[blocks];
+            int[] extractCounts = new int[blocks];
+            for (int j = 0; j < blocks; j++) {
+                long capacity = random.nextInt(5000);
+                long energy = capacity == 0 ? 0 : random.nextLong(capacity + 1);
+                storages[j] = new Storage(capacity, energy, Integer.MAX_VALUE, Integer.MAX_VALUE, false);
+                expected[j] = new Storage(capacity, energy, Integer.MAX_VALUE, Integer.MAX_VALUE, false);
+                int kind = random.nextInt(3);
+                insertCounts[j] = kind == 1 ? 0 : 1 + random.nextInt(4);
+                extractCounts[j] = kind == 0 ? 0 : 1 + random.nextInt(4);
+
+                int block = distributor.addBlock();
+                for (int k = 0; k < insertCounts[j]; k++) {
+                    distributor.addInsert(block, storages[j]);
+                }
+                for (int k = 0; k < extractCounts[j]; k++) {
+                    distributor.addExtract(block, storages[j]);
+                }
+            }
+
+            for (int tick = 0; tick < 3; tick++) {
+                distributeSortAndSplit(expected, insertCounts, extractCounts, transferRate);
+                distributor.distribute();
+                distributor.commit();
+
+                int currentCase = i;
+                assertArrayEquals(
+                    Storage.energies(expected),
+                    Storage.energies(storages),
+                    () -> "case " + currentCase + " with transfer rate " + transferRate + ", inserts " +
+                        Arrays.toString(insertCounts) + " and extracts " + Arrays.toString(extractCounts)
+                );
+            }
+        }
+    }
+
+    /**
+     * Compares the sequential strategy, which only simulates the endpoints it needs, with simulating every endpoint and
+     * filling them in order.
+     */
+    @Test
+    void simulatesSequentiallyLikeFull() {
+        Random random = new Random(42);
+        for (int i = 0; i < CASES; i++) {
+            boolean buffered = random.nextBoolean();
+            long transferRate = 1 + random.nextInt(500);
+            var distributor = new EnergyDistributor(transferRate, EnergyDistributionStrategy.NEAREST_FIRST);
+            int blocks = 1 + random.nextInt(20);
+            Storage[] storages = new Storage[blocks];
+            Storage[] expected = new Storage[blocks];
+            int[] insertCounts = new int[blocks];
+            int[] extractCounts = new int[blocks];
+            for (int j = 0; j < blocks; j++) {
+                storages[j] = Storage.random(random).withoutStinginess();
+                expected[j] = storages[j].withoutStinginess();
+                int kind = random.nextInt(3);
+                insertCounts[j] = kind == 1 ? 0 : 1 + random.nextInt(4);
+                extractCounts[j] = kind == 0 ? 0 : 1 + random.nextInt(4);
+
+                int block = distributor.addBlock();
+                for (int k = 0; k < insertCounts[j]; k++) {
+                    distributor.addInsert(block, storages[j]);
+                }
+                for (int k = 0; k < extractCounts[j]; k++) {
+                    distributor.addExtract(block, storages[j]);
+                }
+            }
+
+            long bufferCapacity = random.nextInt(2000);
+            long buffer = random.nextInt(3000);
+            long expectedBuffer = buffer;
+            for (int tick = 0; tick < 3; tick++) {
+                expectedBuffer = distributeFully(
+                    expected, insertCounts, extractCounts, transferRate, buffered, expectedBuffer, bufferCapacity
+                );
+                if (buffered) distributor.setBuffer(buffer, bufferCapacity);
+                distributor.distribute();
+                distributor.commit();
+                if (buffered) buffer = distributor.getBufferedEnergy();
+
+                String message = "case " + i + " in tick " + tick;
+                assertArrayEquals(Storage.energies(expected), Storage.energies(storages), () -> message);
+                if (buffered) assertEquals(expectedBuffer, buffer, () -> "buffer of " + message);
+            }
+        }
+    }
+
+    /**
+     * The sort-and-split distribution called {@code receiveEnergy(transferRate)} once per connection, so a block
+     * limited per call received its limit once per connection. The distributor simulates a block once with the rate of
+     * all its connections, so blocks get their limit once, no matter through how many connections.
+     */
+    @Test
+    void limitsBlocksPerCallOnce() {
+        for (EnergyDistributionStrategy strategy : EnergyDistributionStrategy.values()) {
+            EnergyDistributor distributor = new EnergyDistributor(1000, strategy);
+            Storage source = new Storage(10_000, 10_000, 0, 1000, false);
+            Storage single = new Storage(10_000, 0, 100, 0, false);
+            Storage triple = new Storage(10_000, 0, 100, 0, false);
+            distributor.addExtract(distributor.addBlock(), source);
+            distributor.addInsert(distributor.addBlock(), single);
+            addConnections(distributor, triple, 3, 0);
+
+            distributor.distribute();
+            distributor.commit();
+            // the sort-and-split distribution inserted 300 into the block with three connections, but extracted 200
+            assertArrayEquals(new long[]{9800, 100, 100}, Storage.energies(new Storage[]{source, single, triple}));
+        }
+    }
+
+    @Test
+    void simulatesOnlyServedEndpoints() {
+        EnergyDistributor distributor = new EnergyDistributor(100, EnergyDistributionStrategy.NEAREST_FIRST);
+        distributor.addExtract(distributor.addBlock(), new Storage(1000, 1000, 100, 100, false));
+        for (int i = 0; i < 10; i++) {
+            distributor.addInsert(distributor.addBlock(), new Storage(1000, 0, 100, 100, false));
+        }
+
+        distributor.distribute();
+        assertEquals(2, distributor.getSimulationCount());
+    }
+
+    /**
+     * Checks that round robin continues with the same endpoint after the blocks were added again in another order.
+     */
+    @Test
+    void rotationSurvivesRelayout() {
+        EnergyDistributor distributor = new EnergyDistributor(100, EnergyDistributionStrategy.ROUND_ROBIN);
+        Storage source = new Storage(1000, 1000, 100, 100, false);
+        Storage[] consumers = new Storage[3];
+        distributor.addExtract(distributor.addBlock(), source);
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Storage(1000, 0, 100, 100, false);
+            distributor.addInsert(distributor.addBlock(), consumers[i]);
+        }
+        distributor.distribute();
+        distributor.commit();
+        assertArrayEquals(new long[]{100, 0, 0}, Storage.energies(consumers));
+
+        distributor.clear();
+        for (int i : new int[]{2, 0, 1}) {
+            distributor.addInsert(distributor.addBlock(), consumers[i]);
+        }
+        distributor.addExtract(distributor.addBlock(), source);
+        distributor.distribute();
+        distributor.commit();
+        assertArrayEquals(new long[]{100, 100, 0}, Storage.energies(consumers));
+    }
+
+    private static void addConnections(
+        EnergyDistributor distributor, Storage storage, int insertCount, int extractCount
+    ) {
+        int block = distributor.addBlock();
+        for (int k = 0; k < insertCount; k++) {
+            distributor.addInsert(block, storage);
+        }
+        for (int k = 0; k < extractCount; k++) {
+            distributor.addExtract(block, storage);
+        }
+    }
+
+    /**
+     * Simulates every endpoint and fills the endpoints of each side in order, like a sequential strategy would without
+     * skipping simulations.
+     *
+     * @return the energy in the buffer after the transfer
+     */
+    private static long distributeFully(
+        Storage[] storages, int[] insertCounts, int[] extractCounts, long transferRate, boolean buffered, long buffer,
+        long bufferCapacity
+    ) {
+        List<Integer> inserts = new ArrayList<>();
+        List<Integer> extracts = new ArrayList<>();
+        List<Integer> insertAndExtracts = new ArrayList<>();
+        for (int block = 0; block < storages.length; block++) {
+            if (insertCounts[block] == 0) {
+                if (extractCounts[block] > 0) extracts.add(block);
+            } else if (extractCounts[block] == 0) {
+                inserts.add(block);
+            } else {
+                insertAndExtracts.add(block);
+            }
+        }
+
+        long[] demands = simulateAll(storages, inserts, insertCounts, transferRate, true);
+        long[] supplies = simulateAll(storages, extracts, extractCounts, transferRate, false);
+        long[] extraDemands = simulateAll(storages, insertAndExtracts, insertCounts, transferRate, true);
+        long[] extraSupplies = simulateAll(storages, insertAndExtracts, extractCounts, transferRate, false);
+        long demand = Arrays.stream(demands).sum();
+        long supply = Arrays.stream(supplies).sum();
+        long bufferEnergy = buffered ? buffer : 0;
+        long bufferRoom = buffered ? bufferCapacity - buffer : 0;
+
+        long insert = Math.min(demand, bufferEnergy + supply);
+        long extract = Math.max(0, Math.min(supply, bufferRoom + insert));
+        long extraInsert = 0;
+        long extraExtract = 0;
+        if (insert < demand && !insertAndExtracts.isEmpty()) {
+            extraExtract = Math.min(Arrays.stream(extraSupplies).sum(), demand - insert);
+            insert += extraExtract;
+        } else if (extract < supply && !insertAndExtracts.isEmpty()) {
+            extraInsert = Math.min(Arrays.stream(extraDemands).sum(), supply - extract);
+            extract += extraInsert;
+        }
+
+        // like the distributor, only extract what was inserted and what the buffer can take
+        long available = bufferEnergy + extract + extraExtract;
+        long inserted = fillInOrder(storages, inserts, demands, Math.min(insert, available), true);
+        long extraInserted = Math.min(extraInsert, available - inserted);
+        inserted += fillInOrder(storages, insertAndExtracts, extraDemands, extraInserted, true);
+        long wanted = buffered ? Math.min(extract + extraExtract, bufferRoom + inserted) : inserted;
+        long extracted = fillInOrder(storages, extracts, supplies, Math.min(extract, wanted), false);
+        long extraExtracted = Math.min(extraExtract, wanted - extracted);
+        extracted += fillInOrder(storages, insertAndExtracts, extraSupplies, extraExtracted, false);
+        if (!buffered) return buffer;
+        long energy = buffer + extracted - inserted;
+        return Math.max(0, Math.min(energy, Math.max(bufferCapacity, buffer)));
+    }
+
+    private static long[] simulateAll(
+        Storage[] storages, List<Integer> blocks, int[] connectionCounts, long transferRate, boolean insert
+    ) {
+        long[] amounts = new long[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            Storage storage = storages[blocks.get(i)];
+            int request = (int) Math.min(transferRate * connectionCounts[blocks.get(i)], Integer.MAX_VALUE);
+            amounts[i] = insert ? storage.receiveEnergy(request, true) : storage.extractEnergy(request, true);
+        }
+        return amounts;
+    }
+
+    private static long fillInOrder(
+        Storage[] storages, List<Integer> blocks, long[] amounts, long amount, boolean insert
+    ) {
+        long transferred = 0;
+        for (int i = 0; i < blocks.size() && transferred < amount; i++) {
+            int transfer = (int) Math.min(amounts[i], amount - transferred);
+            Storage storage = storages[blocks.get(i)];
+            transferred += insert ? storage.receiveEnergy(transfer, false) : storage.extractEnergy(transfer, false);
+        }
+        return transferred;
+    }
+
+    private static void distributeSortAndSplit(
+        Storage[] storages, int[] insertCounts, int[] extractCounts, int transferRate
+    ) {
+        List<Integer> inserts = new ArrayList<>();
+        List<Integer> extracts = new ArrayList<>();
+        List<Integer> insertAndExtracts = new ArrayList<>();
+        for (int block = 0; block < storages.length; block++) {
+            if (insertCounts[block] == 0) {
+                if (extractCounts[block] > 0) extracts.add(block);
+            } else if (extractCounts[block] == 0) {
+                inserts.add(block);
+            } else {
+                insertAndExtracts.add(block);
+            }
+        }
+        if ((inserts.isEmpty() && extracts.isEmpty()) ||
+            (inserts.isEmpty() && insertAndExtracts.isEmpty()) ||
+            (extracts.isEmpty() && insertAndExtracts.isEmpty())) {
+            return;
+        }
+
+        SortedParts sortedInserts = SortedParts.of(storages, inserts, insertCounts, transferRate, true);
+        SortedParts sortedExtracts = SortedParts.of(storages, extracts, extractCounts, transferRate, false);
+        if (sortedInserts.total < sortedExtracts.total) {
+            int excessPower = sortedExtracts.total - sortedInserts.total;
+            var extraInserts = SortedParts.of(storages, insertAndExtracts, insertCounts, transferRate, true);
+            sortedInserts.transferEach(transferRate);
+            if (excessPower > extraInserts.total) {
+                extraInserts.transferEach(transferRate);
+                sortedExtracts.transferBalanced(sortedInserts.total + extraInserts.total);
+            } else {
+                sortedExtracts.transferEach(transferRate);
+                extraInserts.transferBalanced(excessPower);
+            }
+        } else if (sortedInserts.total > sortedExtracts.total) {
+            int powerDeficit = sortedInserts.total - sortedExtracts.total;
+            var extraExtracts = SortedParts.of(storages, insertAndExtracts, extractCounts, transferRate, false);
+            sortedExtracts.transferEach(transferRate);
+            if (powerDeficit > extraExtracts.total) {
+                extraExtracts.transferEach(transferRate);
+                sortedInserts.transferBalanced(sortedExtracts.total + extraExtracts.total);
+            } else {
+                sortedInserts.transferEach(transferRate);
+                extraExtracts.transferBalanced(powerDeficit);
+            }
+        } else {
+            sortedInserts.transferEach(transferRate);
+            sortedExtracts.transferEach(transferRate);
+        }
+    }
+
+    /**
+     * The blocks of one side split into one part per connection and sorted by the size of the parts.
+     */
+    private record SortedParts(List<Storage> parts, boolean insert, int total) {
+
+        private static SortedParts of(
+            Storage[] storages, List<Integer> blocks, int[] connectionCounts, int transferRate, boolean insert
+        ) {
+            int total = 0;
+            // {block, part size}
+            List<int[]> parts = new ArrayList<>();
+            for (int block : blocks) {
+                int count = connectionCounts[block];
+                int amount = transfer(storages[block], transferRate * count, insert, true);
+                if (amount == 0) continue;
+                total += amount;
+                int part = (int) Math.ceil((double) amount / count);
+                for (int i = 0; i < amount / part; i++) {
+                    parts.add(new int[]{block, part});
+                }
+                if (amount % part != 0) parts.add(new int[]{block, amount % part});
+            }
+            parts.sort(Comparator.comparingInt(part -> part[1]));
+            return new SortedParts(parts.stream().map(part -> storages[part[0]]).toList(), insert, total);
+        }
+
+        private void transferEach(int transferRate) {
+            for (Storage storage : parts) {
+                transfer(storage, transferRate, insert, false);
+            }
+        }
+
+        private void transferBalanced(int amount) {
+            int left = amount;
+            for (int i = 0; i < parts.size(); i++) {
+                int toTransfer = (int) Math.ceil(left / (double) (parts.size() - i));
+                left -= transfer(parts.get(i), toTransfer, insert, false);
+                if (left <= 0) break;
+            }
+        }
+
+        private static int transfer(Storage storage, int amount, boolean insert, boolean simulate) {
+            return insert ? storage.receiveEnergy(amount, simulate) : storage.extractEnergy(amount, simulate);
+        }
+    }
+
+    /**
+     * A block storing energy that accepts and provides up to a limit per call. Stingy blocks only accept half of what
+     * they simulated.
+     */
+    private static final class Storage implements EnergyEndpoint {
+
+        private final long capacity;
+        private final int maxReceive;
+        private final int maxExtract;
+        private final boolean stingy;
+        private long energy;
+
+        private Storage(long capacity, long energy, int maxReceive, int maxExtract, boolean stingy) {
+            this.capacity = capacity;
+            this.energy = energy;
+            this.maxReceive = maxReceive;
+            this.maxExtract = maxExtract;
+            this.stingy = stingy;
+        }
+
+        private static Storage random(Random random) {
+            long capacity = random.nextInt(5000);
+            long energy = capacity == 0 ? 0 : random.nextLong(capacity + 1);
+            return new Storage(
+                capacity,
+                energy,
+                random.nextInt(3000),
+                random.nextInt(3000),
+                random.nextInt(4) == 0
+            );
+        }
+
+        private Storage copy() {
+            return new Storage(capacity, energy, maxReceive, maxExtract, stingy);
+        }
+
+        private Storage withoutStinginess() {
+            return new Storage(capacity, energy, maxReceive, maxExtract, false);
+        }
+
+        private static long[] energies(Storage[] storages) {
+            long[] energies = new long[storages.length];
+            for (int i = 0; i < storages.length; i++) {
+                energies[i] = storages[i].energy;
+            }
+            return energies;
+        }
+
+        private static long sum(Storage[] storages) {
+            long sum = 0;
+            for (Storage storage : storages) {
+                sum += storage.energy;
+            }
+            return sum;
+        }
+
+        @Override
+        public int receiveEnergy(int maxReceive, boolean simulate) {
+            int received = (int) Math.min(Math.min(this.maxReceive, maxReceive), capacity - energy);
+            if (simulate) return received;
+            if (stingy) received /= 2;
+            energy += received;
+            return received;
+        }
+
+        @Override
+        public int extractEnergy(int maxExtract, boolean simulate) {
+            int extracted = (int) Math.min(Math.min(this.maxExtract, maxExtract), energy);
+            if (!simulate) energy -= extracted;
+            return extracted;
+        }
+    }
+}
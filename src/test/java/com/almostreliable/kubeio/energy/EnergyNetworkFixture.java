@@ -0,0 +1,106 @@
+package com.almostreliable.kubeio.energy;
+
+import java.util.Random;
+
+/**
+ * Networks of fake blocks that accept and provide the same amount every tick, shared by the tests and the benchmarks.
+ */
+public final class EnergyNetworkFixture {
+
+    public static final int TRANSFER_RATE = 1000;
+
+    private EnergyNetworkFixture() {}
+
+    /**
+     * Creates the blocks of a network of the given scenario, the same seed creates the same blocks.
+     */
+    public static Block[] createBlocks(Scenario scenario, int count, long seed) {
+        Random random = new Random(seed);
+        Block[] blocks = new Block[count];
+        for (int i = 0; i < count; i++) {
+            blocks[i] = scenario.createBlock(i, random);
+        }
+        return blocks;
+    }
+
+    public static void addBlocks(EnergyDistributor distributor, Block[] blocks) {
+        for (Block block : blocks) {
+            block.addTo(distributor);
+        }
+    }
+
+    public enum Scenario {
+        // producers offer twice what the consumers accept
+        EXCESS_POWER {
+            @Override
+            Block createBlock(int block, Random random) {
+                return createFixed(block, TRANSFER_RATE / 2, TRANSFER_RATE);
+            }
+        },
+        // consumers accept twice what the producers offer
+        POWER_DEFICIT {
+            @Override
+            Block createBlock(int block, Random random) {
+                return createFixed(block, TRANSFER_RATE, TRANSFER_RATE / 2);
+            }
+        },
+        BALANCED {
+            @Override
+            Block createBlock(int block, Random random) {
+                return createFixed(block, TRANSFER_RATE, TRANSFER_RATE);
+            }
+        },
+        // varying limits and connection counts, a third of the blocks insert and extract
+        MIXED {
+            @Override
+            Block createBlock(int block, Random random) {
+                int kind = block % 3;
+                int maxReceive = kind == 1 ? 0 : 1 + random.nextInt(TRANSFER_RATE * 2);
+                int maxExtract = kind == 0 ? 0 : 1 + random.nextInt(TRANSFER_RATE * 2);
+                int inserts = maxReceive == 0 ? 0 : 1 + random.nextInt(6);
+                int extracts = maxExtract == 0 ? 0 : 1 + random.nextInt(6);
+                return new Block(new FixedEndpoint(maxReceive, maxExtract), inserts, extracts);
+            }
+        };
+
+        abstract Block createBlock(int block, Random random);
+
+        private static Block createFixed(int block, int insertLimit, int extractLimit) {
+            // even blocks consume, odd blocks produce
+            if (block % 2 == 0) return new Block(new FixedEndpoint(insertLimit, 0), 1, 0);
+            return new Block(new FixedEndpoint(0, extractLimit), 0, 1);
+        }
+    }
+
+    /**
+     * A block of a network with the amount of its inserting and extracting connections.
+     */
+    public record Block(EnergyEndpoint endpoint, int inserts, int extracts) {
+
+        public void addTo(EnergyDistributor distributor) {
+            int index = distributor.addBlock();
+            for (int i = 0; i < inserts; i++) {
+                distributor.addInsert(index, endpoint);
+            }
+            for (int i = 0; i < extracts; i++) {
+                distributor.addExtract(index, endpoint);
+            }
+        }
+    }
+
+    /**
+     * An endpoint that accepts and provides up to a fixed amount per call, so every tick looks the same.
+     */
+    public record FixedEndpoint(int maxReceive, int maxExtract) implements EnergyEndpoint {
+
+        @Override
+        public int receiveEnergy(int maxReceive, boolean simulate) {
+            return Math.min(this.maxReceive, maxReceive);
+        }
+
+        @Override
+        public int extractEnergy(int maxExtract, boolean simulate) {
+            return Math.min(this.maxExtract, maxExtract);
+        }
+    }
+}
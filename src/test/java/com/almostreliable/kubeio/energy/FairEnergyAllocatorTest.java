@@ -0,0 +1,80 @@
+package com.almostreliable.kubeio.energy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Compares the allocator with the sort-and-split allocation the energy conduits used before, which split every
+ * endpoint into parts, sorted all parts and offered each of them an even split of what's left.
+ */
+class FairEnergyAllocatorTest {
+
+    private static final int CASES = 20_000;
+
+    @Test
+    void matchesSortAndSplit() {
+        Random random = new Random(42);
+        FairEnergyAllocator allocator = new FairEnergyAllocator();
+        for (int i = 0; i < CASES; i++) {
+            // few endpoints use the insertion sort, many the radix sort, small capacities produce equal part sizes
+            int endpoints = 1 + random.nextInt(random.nextBoolean() ? 8 : 100);
+            int maxCapacity = random.nextBoolean() ? 16 : 100_000;
+            int[] capacities = new int[endpoints];
+            int[] connections = new int[endpoints];
+            allocator.reset();
+            long total = 0;
+            for (int endpoint = 0; endpoint < endpoints; endpoint++) {
+                capacities[endpoint] = random.nextInt(maxCapacity + 1);
+                connections[endpoint] = 1 + random.nextInt(6);
+                allocator.add(capacities[endpoint], connections[endpoint]);
+                total += capacities[endpoint];
+            }
+
+            long amount = total == 0 ? 0 : random.nextLong(total);
+            int[] expected = allocateSortAndSplit(capacities, connections, amount);
+            int[] actual = new int[endpoints];
+            allocator.allocate(amount, actual);
+            assertArrayEquals(
+                expected,
+                actual,
+                () -> "allocating " + amount + " to " + Arrays.toString(capacities) + " with connections " +
+                    Arrays.toString(connections)
+            );
+        }
+    }
+
+    private static int[] allocateSortAndSplit(int[] capacities, int[] connections, long amount) {
+        // {size, endpoint}, the full parts of an endpoint followed by its remainder
+        List<int[]> parts = new ArrayList<>();
+        for (int endpoint = 0; endpoint < capacities.length; endpoint++) {
+            int capacity = capacities[endpoint];
+            if (capacity <= 0) continue;
+            int part = (int) Math.ceil((double) capacity / connections[endpoint]);
+            for (int i = 0; i < capacity / part; i++) {
+                parts.add(new int[]{part, endpoint});
+            }
+            if (capacity % part != 0) parts.add(new int[]{capacity % part, endpoint});
+        }
+        parts.sort(Comparator.comparingInt(part -> part[0]));
+
+        int[] remaining = capacities.clone();
+        int[] result = new int[capacities.length];
+        long left = amount;
+        for (int i = 0; i < parts.size() && left > 0; i++) {
+            int endpoint = parts.get(i)[1];
+            long offered = (long) Math.ceil(left / (double) (parts.size() - i));
+            int taken = (int) Math.min(remaining[endpoint], offered);
+            result[endpoint] += taken;
+            remaining[endpoint] -= taken;
+            left -= taken;
+        }
+        return result;
+    }
+}